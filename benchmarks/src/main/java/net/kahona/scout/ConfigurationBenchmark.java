@@ -0,0 +1,94 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Configuration} operations with an increasing number of configured services. Each parameter runs
+ * in its own fork against a temporary home directory.
+ *
+ * @author Dennis Reedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurationBenchmark {
+    @Param({"100", "1000", "10000"})
+    int services;
+    private File home;
+    private long counter;
+
+    @Setup
+    public void setup() throws IOException {
+        home = File.createTempFile("scout-bench", "");
+        if(!home.delete() || !new File(home, ".kahona").mkdirs())
+            throw new IOException("Unable to create " + home.getPath());
+        System.setProperty("user.home", home.getPath());
+        PrintWriter writer = new PrintWriter(new File(home, ".kahona/scout.xml"), "UTF-8");
+        writer.println("<services>");
+        for(int i=0; i<services; i++)
+            writer.println("  <service name='service-" + i + "' address='host-" + i + ":8080' frequency='5' " +
+                           "timeUnit='SECONDS' />");
+        writer.println("</services>");
+        writer.close();
+        if(Configuration.read().length!=services)
+            throw new IllegalStateException("Expected " + services + " services");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Configuration.flush();
+        File[] files = new File(home, ".kahona").listFiles();
+        if(files!=null) {
+            for(File file : files)
+                file.delete();
+        }
+        new File(home, ".kahona").delete();
+        home.delete();
+    }
+
+    @Benchmark
+    public Service[] read() {
+        return Configuration.read();
+    }
+
+    @Benchmark
+    public void appendAndRemove() {
+        Service service = new Service("added-" + counter++, "host:8080", "5", "SECONDS");
+        Configuration.append(service);
+        Configuration.remove(service);
+    }
+
+    @Benchmark
+    public void replace() {
+        long n = counter++;
+        Configuration.replace(new Service("service-" + (n % services), "host-" + n + ":8080", "5", "SECONDS"));
+    }
+
+    @Benchmark
+    public ConfigurationDiff reload() {
+        return Configuration.reload();
+    }
+}
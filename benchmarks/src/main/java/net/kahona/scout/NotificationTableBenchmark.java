@@ -0,0 +1,58 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding events to the {@link NotificationTableModel} from probe threads, including the batches applied on
+ * the event dispatch thread. Runs headless.
+ *
+ * @author Dennis Reedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NotificationTableBenchmark {
+    @Param({"1000", "100000"})
+    int capacity;
+    private NotificationTableModel model;
+    private ServiceEvent event;
+
+    @Setup
+    public void setup() {
+        model = new NotificationTableModel(capacity);
+        event = new ServiceEvent(new Service("bench", "host:8080", "5", "SECONDS"),
+                                 ServiceEvent.Type.NOT_AVAILABLE,
+                                 System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void add() {
+        model.add(event);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addFromFourThreads() {
+        model.add(event);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time of one probe, {@code Endpoint.run()} through to its completion, against a loopback listener
+ * and against a closed loopback port.
+ *
+ * @author Dennis Reedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProbeBenchmark {
+    @Param({"NIO", "BLOCKING"})
+    ServiceMonitor.ProbeMode mode;
+    @Param({"open", "closed"})
+    String port;
+    private final Semaphore completed = new Semaphore(0);
+    private ServerSocket listener;
+    private ProbeScheduler scheduler;
+    private ServiceMonitor monitor;
+    private Runnable probe;
+
+    @Setup
+    public void setup() throws Exception {
+        listener = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while(true)
+                        listener.accept().close();
+                } catch (IOException e) {
+                    /* Listener closed */
+                }
+            }
+        }, "bench-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        int target = "open".equals(port)?listener.getLocalPort():closedPort();
+        scheduler = new ProbeScheduler(10, TimeUnit.MILLISECONDS, 64, 2);
+        Service service = new Service("bench", "127.0.0.1:" + target, "1", "HOURS");
+        monitor = new ServiceMonitor(ProbeSpec.compile(service), new NoOpListener(), scheduler, mode);
+        monitor.addProbeListener(new ProbeListener() {
+            public void probeCompleted(Service service, boolean available, long connectNanos) {
+                completed.release();
+            }
+        });
+        /* The scheduled probe is somewhere within the hour, probes are started by the benchmark */
+        probe = monitor.getEndpoint();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        monitor.terminate();
+        scheduler.shutdown();
+        listener.close();
+    }
+
+    @Benchmark
+    public void probe() throws InterruptedException {
+        probe.run();
+        completed.acquire();
+        while(monitor.isProbeInFlight())
+            Thread.yield();
+    }
+
+    private static int closedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int closed = socket.getLocalPort();
+        socket.close();
+        return closed;
+    }
+
+    static class NoOpListener implements NotificationListener {
+        public void serviceIsNowAvailable(Service service) {
+        }
+
+        public void serviceNotAvailable(Service service) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link ProbeScheduler} while it drives 1k, 10k and 100k monitors, each probed once a second:
+ * the cost of registering and cancelling a probe, and the delay from registering a probe to it running.
+ *
+ * @author Dennis Reedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulingBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int monitors;
+    private final List<ProbeScheduler.ScheduledProbe> scheduled = new ArrayList<ProbeScheduler.ScheduledProbe>();
+    private final Runnable noOp = new Runnable() {
+        public void run() {
+        }
+    };
+    private ProbeScheduler scheduler;
+
+    @Setup
+    public void setup() {
+        scheduler = new ProbeScheduler(10, TimeUnit.MILLISECONDS, 1024, 2);
+        Random random = new Random(monitors);
+        for(int i=0; i<monitors; i++)
+            scheduled.add(scheduler.schedule(noOp, random.nextInt(1000), 1000, TimeUnit.MILLISECONDS));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for(ProbeScheduler.ScheduledProbe probe : scheduled)
+            probe.cancel();
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        scheduler.schedule(noOp, 1, 1, TimeUnit.SECONDS).cancel();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void scheduleToRun() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        ProbeScheduler.ScheduledProbe probe = scheduler.schedule(new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        }, 0, 1, TimeUnit.HOURS);
+        ran.await();
+        probe.cancel();
+    }
+}
@@ -17,69 +17,197 @@ package net.kahona.scout
 
 import groovy.xml.MarkupBuilder
 
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
 /**
- * Scout configuration
+ * Scout configuration. The configured services are read from scout.xml once, after that an in-memory, name-indexed
+ * map is the source of truth. Services that do not compile to a {@link ProbeSpec} are rejected when the file is
+ * read. Changes are written back by a background writer, debounced so that a burst of changes
+ * costs a single write. The file is written to a temporary file first and then atomically renamed.
  *
  * @author Dennis Reedy
  */
 class Configuration {
+    private static final long WRITE_DELAY = Long.getLong("scout.config.writeDelay", 250)
+    private static final Map<String, Service> services = new LinkedHashMap<String, Service>()
+    private static final ScheduledExecutorService writer =
+        Executors.newSingleThreadScheduledExecutor(new ProbeScheduler.NamedThreadFactory("scout-config"))
+    private static boolean loaded
+    private static ScheduledFuture pendingWrite
 
-    static Service[] read() {
-        def configuredServices = []
-        File scoutConf = getConfigurationFile()
-        if (scoutConf.exists()) {
-            def services = new XmlSlurper().parse(scoutConf)
-            services.service.each { s ->
-                Service service = new Service()
-                service.name = s.'@name'
-                service.address = s.'@address'
-                service.frequency = s.'@frequency'
-                service.timeUnit = s.'@timeUnit'
-                configuredServices << service
+    static synchronized Service[] read() {
+        load()
+        return services.values() as Service[]
+    }
+
+    static synchronized Service get(String name) {
+        load()
+        return services.get(name)
+    }
+
+    static synchronized void append(Service newService) {
+        load()
+        services.put(newService.name, newService)
+        scheduleWrite()
+    }
+
+    static synchronized void replace(Service serviceToReplace) {
+        load()
+        services.put(serviceToReplace.name, serviceToReplace)
+        scheduleWrite()
+    }
+
+    static synchronized void remove(Service serviceToRemove) {
+        load()
+        if(services.remove(serviceToRemove.name)!=null)
+            scheduleWrite()
+    }
+
+    /**
+     * Write any pending changes now, on the calling thread. If the writer is already writing them, wait for it to
+     * finish.
+     */
+    static void flush() {
+        ScheduledFuture waited = null
+        while(true) {
+            ScheduledFuture pending
+            synchronized(Configuration) {
+                pending = pendingWrite
             }
+            if(pending==null || pending.is(waited))
+                return
+            if(pending.cancel(false)) {
+                write()
+                return
+            }
+            /* The write is running, wait for it, then write any change made while it ran */
+            try {
+                pending.get()
+            } catch (ExecutionException e) {
+                e.cause.printStackTrace()
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt()
+                return
+            }
+            waited = pending
+        }
+    }
+
+    /**
+     * Re-read scout.xml after it was changed outside of Scout, and make it the source of truth.
+     *
+     * @return The services that were added, removed or changed. If scout.xml does not exist or cannot be parsed
+     * the configuration is left as it is and the diff is empty.
+     */
+    static synchronized ConfigurationDiff reload() {
+        def added = []
+        def removed = []
+        def changed = []
+        Map<String, Service> current
+        try {
+            current = parse()
+        } catch (Exception e) {
+            System.err.println("Unable to reload ${configurationFile.path}: ${e.message}")
+            current = null
+        }
+        if(current!=null) {
+            loaded = true
+            current.each { name, service ->
+                Service existing = services.get(name)
+                if(existing==null)
+                    added << service
+                else if(existing!=service)
+                    changed << service
+            }
+            services.each { name, service ->
+                if(!current.containsKey(name))
+                    removed << service
+            }
+            services.clear()
+            services.putAll(current)
         }
-        return configuredServices as Service[]
+        return new ConfigurationDiff(added, removed, changed)
     }
 
-    static void append(Service newService) {
-        def configuredServices = []
-        for(Service s : read())
-            configuredServices << s
-        configuredServices << newService
-        write(configuredServices)
+    private static void load() {
+        if(loaded)
+            return
+        Map<String, Service> current = parse()
+        if(current!=null)
+            services.putAll(current)
+        loaded = true
     }
 
-    static void replace(Service serviceToReplace) {
-        def configuredServices = []
-        for(Service s : read()) {
-            if(!s.name.equals(serviceToReplace.name))
-                configuredServices << s
+    private static Map<String, Service> parse() {
+        File scoutConf = getConfigurationFile()
+        if (!scoutConf.exists())
+            return null
+        Map<String, Service> parsed = new LinkedHashMap<String, Service>()
+        def configured = new XmlSlurper().parse(scoutConf)
+        configured.service.each { s ->
+            Service service = new Service()
+            service.name = s.'@name'
+            service.address = s.'@address'
+            service.frequency = s.'@frequency'
+            service.timeUnit = s.'@timeUnit'
+            service.minFrequency = s.'@minFrequency'.text() ?: null
+            service.maxFrequency = s.'@maxFrequency'.text() ?: null
+            service.priority = s.'@priority'.text() ?: null
+            service.probe = s.'@probe'.text() ?: null
+            service.path = s.'@path'.text() ?: null
+            service.failureThreshold = s.'@failureThreshold'.text() ?: null
+            service.timeout = s.'@timeout'.text() ?: null
+            try {
+                ProbeSpec.compile(service)
+                parsed.put(service.name, service)
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring invalid service in ${scoutConf.path}: ${e.message}")
+            }
         }
-        configuredServices << serviceToReplace
-        write(configuredServices)
+        return parsed
     }
 
-    static void remove(Service serviceToRemove) {
-        def configuredServices = []
-        for(Service s : read()) {
-            if(!s.name.equals(serviceToRemove.name))
-                configuredServices << s
-        }
-        write(configuredServices)
+    private static void scheduleWrite() {
+        if(pendingWrite==null)
+            pendingWrite = writer.schedule({
+                try {
+                    write()
+                } catch (IOException e) {
+                    e.printStackTrace()
+                }
+            } as Runnable, WRITE_DELAY, TimeUnit.MILLISECONDS)
     }
 
-    private static void write(configuredServices) {
+    private static void write() {
+        def configuredServices
+        synchronized(Configuration) {
+            pendingWrite = null
+            configuredServices = new ArrayList<Service>(services.values())
+        }
         def writer = new StringWriter()
         def builder = new MarkupBuilder(writer)
+        builder.omitNullAttributes = true
         builder.services() {
             configuredServices.each { s ->
-                service(name:s.name, address:s.address, frequency:s.frequency, timeUnit:s.timeUnit)
+                service(name:s.name, address:s.address, frequency:s.frequency, timeUnit:s.timeUnit,
+                        minFrequency:s.minFrequency, maxFrequency:s.maxFrequency, priority:s.priority,
+                        probe:s.probe, path:s.path, failureThreshold:s.failureThreshold,
+                        timeout:s.timeout)
             }
         }
-        configurationFile.write(writer.toString())
+        File target = configurationFile
+        File temp = new File(target.parentFile, target.name + ".tmp")
+        temp.write(writer.toString())
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
     }
 
-    private static File getKahonaHome() {
+    static File getKahonaHome() {
         File kahonaHomeDir = new File(System.getProperty("user.home") + File.separator + ".kahona")
         if (!kahonaHomeDir.exists()) {
             if (kahonaHomeDir.mkdir())
@@ -88,7 +216,7 @@ class Configuration {
         return kahonaHomeDir;
     }
 
-    private static File getConfigurationFile() {
+    static File getConfigurationFile() {
         return new File(getKahonaHome(), "scout.xml")
     }
 
@@ -16,7 +16,12 @@
 package net.kahona.scout
 
 /**
- * Attributes for a service to be monitored
+ * Attributes for a service to be monitored. The optional {@code minFrequency} and {@code maxFrequency} bound how far
+ * the time between probes adapts, in the service's time unit, see {@link AdaptiveFrequency}. The optional
+ * {@code priority} orders probes waiting for admission, see {@link ProbeAdmission}. The optional {@code probe}
+ * selects how the service is checked, see {@link Probe}, and {@code path} is the health endpoint of HTTP probes.
+ * The optional {@code failureThreshold} is the number of consecutive failed probes that make the service not
+ * available, and {@code timeout} is the most time a probe may take, in milliseconds.
  *
  * @author Dennis Reedy
  */
@@ -25,6 +30,13 @@ class Service {
     String address
     String frequency
     String timeUnit
+    String minFrequency
+    String maxFrequency
+    String priority
+    String probe
+    String path
+    String failureThreshold
+    String timeout
 
     Service() {
     }
@@ -36,6 +48,20 @@ class Service {
         this.timeUnit = timeUnit
     }
 
+    boolean equals(Object o) {
+        if(!(o instanceof Service))
+            return false
+        Service other = (Service) o
+        return name==other.name && address==other.address && frequency==other.frequency && timeUnit==other.timeUnit &&
+               minFrequency==other.minFrequency && maxFrequency==other.maxFrequency &&
+               priority==other.priority && probe==other.probe && path==other.path &&
+               failureThreshold==other.failureThreshold && timeout==other.timeout
+    }
+
+    int hashCode() {
+        return name==null?0:name.hashCode()
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder()
         builder.append("Service [ ").
@@ -43,6 +69,13 @@ class Service {
                 append(", address: ").append(address).
                 append(", frequency: ").append(frequency).
                 append(", timeUnit: ").append(timeUnit).
+                append(", minFrequency: ").append(minFrequency).
+                append(", maxFrequency: ").append(maxFrequency).
+                append(", priority: ").append(priority).
+                append(", probe: ").append(probe).
+                append(", path: ").append(path).
+                append(", failureThreshold: ").append(failureThreshold).
+                append(", timeout: ").append(timeout).
                 append("]")
         return builder.toString()
     }
@@ -0,0 +1,65 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+/**
+ * Decides the time between probes of a service with an adaptive {@link ProbeSpec}. After the availability of the
+ * service changes, it is probed at the spec's minimum period a few times to confirm the change. After that, a
+ * service that is available is probed at its configured frequency, and the time between probes of a service that
+ * stays unavailable grows by a backoff factor after each failed probe, up to the spec's maximum period.
+ *
+ * <p>The number of confirming probes and the backoff factor are set with the {@code scout.adaptive.confirmProbes}
+ * and {@code scout.adaptive.backoff} system properties.</p>
+ *
+ * @author Dennis Reedy
+ */
+final class AdaptiveFrequency {
+    static final int CONFIRM_PROBES = Integer.getInteger("scout.adaptive.confirmProbes", 3);
+    static final double BACKOFF = Math.max(1, Double.parseDouble(System.getProperty("scout.adaptive.backoff", "2")));
+    private long periodNanos;
+    private int confirming;
+
+    /**
+     * Decide the time until the next probe.
+     *
+     * @param spec The spec of the service
+     * @param available Whether the probe that just completed succeeded
+     * @param changed Whether the probe changed the availability of the service
+     *
+     * @return The time until the next probe, in nanoseconds
+     */
+    long next(ProbeSpec spec, boolean available, boolean changed) {
+        if(changed)
+            confirming = CONFIRM_PROBES;
+        if(confirming>0) {
+            confirming--;
+            periodNanos = spec.getMinPeriodNanos();
+        } else if(available || periodNanos<spec.getPeriodNanos()) {
+            periodNanos = spec.getPeriodNanos();
+        } else {
+            periodNanos = (long) Math.min(spec.getMaxPeriodNanos(), periodNanos * BACKOFF);
+        }
+        return periodNanos;
+    }
+
+    /**
+     * Forget the history of the service, the next probe is decided as if it were the first.
+     */
+    void reset() {
+        periodNanos = 0;
+        confirming = 0;
+    }
+}
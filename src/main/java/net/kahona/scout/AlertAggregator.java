@@ -0,0 +1,123 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces service events into alerts. Events are collected for a short window after the first one arrives, and
+ * then shown together in a single, reused {@link AlertWindow}. Only the latest event of each service in a window is
+ * shown. A window with one event shows the usual per-service alert, otherwise a summary such as
+ * "42 services are not reachable" is shown with the affected services as expandable details.
+ *
+ * @author Dennis Reedy
+ */
+public class AlertAggregator {
+    private final Queue<ServiceEvent> pending = new ConcurrentLinkedQueue<ServiceEvent>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final DateFormat dateFormat = new SimpleDateFormat("MM/dd/yy hh:mm:ss aa");
+    private final Timer timer;
+    private AlertWindow alertWindow;
+
+    /**
+     * Create an {@code AlertAggregator}.
+     *
+     * @param windowMillis How long to collect events for before showing an alert
+     */
+    public AlertAggregator(int windowMillis) {
+        timer = new Timer(windowMillis, new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                showAlert();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Add an event to be alerted. May be called from any thread.
+     *
+     * @param event The event
+     */
+    public void add(ServiceEvent event) {
+        pending.add(event);
+        if(scheduled.compareAndSet(false, true))
+            timer.restart();
+    }
+
+    private void showAlert() {
+        scheduled.set(false);
+        Map<String, ServiceEvent> latest = new LinkedHashMap<String, ServiceEvent>();
+        ServiceEvent event;
+        while((event = pending.poll())!=null) {
+            latest.remove(event.getService().getName());
+            latest.put(event.getService().getName(), event);
+        }
+        if(latest.isEmpty())
+            return;
+        List<String> notAvailable = new ArrayList<String>();
+        List<String> available = new ArrayList<String>();
+        ServiceEvent last = null;
+        for(ServiceEvent e : latest.values()) {
+            String detail = e.getService().getName() + " (" + e.getService().getAddress() + ")";
+            if(e.getType()==ServiceEvent.Type.NOT_AVAILABLE)
+                notAvailable.add(detail + " is not reachable");
+            else
+                available.add(detail + " is now available");
+            last = e;
+        }
+        if(alertWindow==null)
+            alertWindow = new AlertWindow();
+        String dateStamp = dateFormat.format(new Date(last.getTime()));
+        Icon icon = UIManager.getIcon(notAvailable.isEmpty()?"OptionPane.informationIcon":"OptionPane.errorIcon");
+        if(latest.size()==1) {
+            Service service = last.getService();
+            String message = last.getType()==ServiceEvent.Type.NOT_AVAILABLE?
+                             "The ["+service.getName()+"] service is not reachable":
+                             "The ["+service.getName()+"] service is now available";
+            alertWindow.setAlert(message, service.getAddress(), dateStamp, icon, null);
+        } else {
+            StringBuilder message = new StringBuilder();
+            if(!notAvailable.isEmpty())
+                message.append(plural(notAvailable.size())).append(" not reachable");
+            if(!available.isEmpty()) {
+                if(message.length()>0)
+                    message.append(", ").append(available.size()).append(" now available");
+                else
+                    message.append(plural(available.size())).append(" now available");
+            }
+            List<String> details = new ArrayList<String>(notAvailable);
+            details.addAll(available);
+            alertWindow.setAlert(message.toString(), null, dateStamp, icon, details);
+        }
+        alertWindow.setVisible(true);
+    }
+
+    private static String plural(int count) {
+        return count==1?"1 service is":count+" services are";
+    }
+}
@@ -15,24 +15,36 @@
  */
 package net.kahona.scout;
 
-import com.sun.awt.AWTUtilities;
-
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.lang.reflect.Method;
+import java.util.List;
 
 /**
- * An alert window that is always on top
+ * An alert window that is always on top. The window is reusable, {@link #setAlert} replaces what it shows. An
+ * alert may carry a list of details, which the user can expand.
  *
  * @author Dennis Reedy
  */
 /* Suppress PMD warning, we want to call setOpaque() in the constructor */
 @SuppressWarnings("PMD.ConstructorCallsOverridableMethod")
 public class AlertWindow extends JFrame implements MouseListener {
+    private final JLabel warningLabel;
+    private final JLabel dateTimeAddressLabel;
+    private final JButton detailsButton;
+    private final DefaultListModel<String> detailsModel = new DefaultListModel<String>();
+    private final JScrollPane detailsPane;
 
     public AlertWindow(String message, String address, String dateStamp, Icon icon) {
+        this();
+        setAlert(message, address, dateStamp, icon, null);
+    }
+
+    public AlertWindow() {
         setAlwaysOnTop(true);
         setFocusable(false);
         setUndecorated(true);
@@ -42,7 +54,7 @@ public class AlertWindow extends JFrame implements MouseListener {
         setBackground(Color.BLACK);
         addMouseListener(this);
         //setOpaque();
-        AWTUtilities.setWindowOpacity(this, 0.70f);
+        setOpacity(0.70f);
 
         Color colorBack = new Color(88, 107, 132);
         Color colorFront = new Color(149, 179, 215);
@@ -50,35 +62,76 @@ public class AlertWindow extends JFrame implements MouseListener {
         outer.setBackground(colorBack);
         outer.setBorder(BorderFactory.createEmptyBorder(16, 16, 16, 16));
 
-        JLabel warningLabel;
-        if(icon!=null)
-            warningLabel = new JLabel(message, icon, SwingConstants.CENTER);
-        else
-            warningLabel = new JLabel(message, SwingConstants.CENTER);
+        warningLabel = new JLabel("", SwingConstants.CENTER);
         warningLabel.setForeground(Color.WHITE);
         Font font = new Font("Lucida Grande", 0, 18);
         warningLabel.setFont(font);
 
-        StringBuilder builder = new StringBuilder();
-        builder.append("<html><body><p><center>");
-        builder.append("Address: ").append(address);
-        builder.append("<br>");
-        builder.append(dateStamp);
-        builder.append("</center></p></body></html>");
-        JLabel dateTimeAddressLabel = new JLabel(builder.toString(), SwingConstants.CENTER);
+        dateTimeAddressLabel = new JLabel("", SwingConstants.CENTER);
         dateTimeAddressLabel.setForeground(Color.WHITE);
 
+        detailsButton = new JButton("Show services");
+        detailsButton.setFocusable(false);
+        detailsButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                boolean expand = !detailsPane.isVisible();
+                detailsPane.setVisible(expand);
+                detailsButton.setText(expand?"Hide services":"Show services");
+                setVisible(true);
+            }
+        });
+        detailsPane = new JScrollPane(new JList<String>(detailsModel));
+        detailsPane.setVisible(false);
+
+        JPanel south = new JPanel(new BorderLayout(4, 4));
+        south.setOpaque(false);
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.setOpaque(false);
+        buttonPanel.add(detailsButton);
+        south.add(dateTimeAddressLabel, BorderLayout.NORTH);
+        south.add(buttonPanel, BorderLayout.CENTER);
+        south.add(detailsPane, BorderLayout.SOUTH);
+
         JPanel pane = new JPanel(new BorderLayout(8, 8));
         //pane.setBackground(Color.GRAY);
         pane.setBackground(colorFront);
         pane.setBorder(BorderFactory.createEmptyBorder(8, 8, 4, 8));
         pane.add(warningLabel, BorderLayout.CENTER);
-        pane.add(dateTimeAddressLabel, BorderLayout.SOUTH);
+        pane.add(south, BorderLayout.SOUTH);
 
         outer.add(pane, BorderLayout.CENTER);
         getContentPane().add(outer);
     }
 
+    /**
+     * Set what the alert shows. Must be called on the event dispatch thread.
+     *
+     * @param message The alert message
+     * @param address The address of the service, or {@code null} if the alert is for more than one service
+     * @param dateStamp When the alert was raised
+     * @param icon The icon to show with the message, may be {@code null}
+     * @param details Details the user can expand, may be {@code null}
+     */
+    public void setAlert(String message, String address, String dateStamp, Icon icon, List<String> details) {
+        warningLabel.setText(message);
+        warningLabel.setIcon(icon);
+        StringBuilder builder = new StringBuilder();
+        builder.append("<html><body><p><center>");
+        if(address!=null)
+            builder.append("Address: ").append(address).append("<br>");
+        builder.append(dateStamp);
+        builder.append("</center></p></body></html>");
+        dateTimeAddressLabel.setText(builder.toString());
+        detailsModel.clear();
+        if(details!=null) {
+            for(String detail : details)
+                detailsModel.addElement(detail);
+        }
+        detailsButton.setVisible(!detailsModel.isEmpty());
+        detailsButton.setText("Show services");
+        detailsPane.setVisible(false);
+    }
+
     public void mouseClicked(MouseEvent e) {
         this.setVisible(false);
     }
@@ -110,7 +163,9 @@ public class AlertWindow extends JFrame implements MouseListener {
     public void setVisible(boolean visible) {
         if (visible) {
             int width = 500;
-            int height = 150;
+            int height = detailsButton.isVisible()?185:150;
+            if(detailsPane.isVisible())
+                height += 200;
             pack();
             setSize(width, height);
             Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
@@ -0,0 +1,255 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Availability aggregates of one service over sliding windows of the last hour, day, week and month, kept up to
+ * date as each probe completes. Each window is a fixed ring of buckets holding the time the service was up and
+ * down, the outages that started and the outages that ended, with running totals. Recording a probe updates the
+ * current bucket of each window and, when a bucket is left, subtracts the one that falls out of the window. No
+ * probe history is kept, and the window slides one bucket at a time.
+ *
+ * <p>The service is up or down as it was last notified, so failed probes that were not confirmed, see
+ * {@link ProbeSpec#getFailureThreshold()}, do not count as an outage. A service that is down when first probed
+ * counts as an outage that started then. The time between two probes counts towards the state found by the later
+ * one. A gap longer than the given maximum, such as when Scout was not running, is not counted.</p>
+ *
+ * <p>The aggregates cover the time since the monitor was started.</p>
+ *
+ * <p>Recording a probe publishes an immutable snapshot of the totals, so reading them, when the metrics are
+ * scraped, neither locks nor changes the windows, and never waits for a probe. The totals are as of the service's
+ * last probe, a window that no probe has completed in for its whole length is empty.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class AvailabilityStats {
+    /**
+     * The sliding windows, with the number of buckets each is kept in.
+     */
+    public enum Window {
+        HOUR(TimeUnit.HOURS.toMillis(1), 60),
+        DAY(TimeUnit.DAYS.toMillis(1), 96),
+        WEEK(TimeUnit.DAYS.toMillis(7), 168),
+        MONTH(TimeUnit.DAYS.toMillis(30), 180);
+        final long millis;
+        final int buckets;
+
+        Window(long millis, int buckets) {
+            this.millis = millis;
+            this.buckets = buckets;
+        }
+    }
+
+    private final Ring[] rings = new Ring[Window.values().length];
+    private long lastTime = -1;
+    private boolean up = true;
+    private long stateSince = -1;
+    private volatile Snapshot snapshot = new Snapshot(-1, true, -1, new long[0][]);
+
+    public AvailabilityStats() {
+        for(Window window : Window.values())
+            rings[window.ordinal()] = new Ring(window);
+    }
+
+    /**
+     * Record the state of the service after a probe.
+     *
+     * @param time When the probe completed, in milliseconds since the epoch
+     * @param available Whether the service is up
+     * @param maxGapMillis The longest time since the previous probe that is counted
+     */
+    public synchronized void record(long time, boolean available, long maxGapMillis) {
+        long gap = lastTime<0?0:time - lastTime;
+        if(gap<0)
+            return;
+        if(gap>maxGapMillis)
+            gap = 0;
+        for(Ring ring : rings) {
+            ring.advance(time);
+            if(available)
+                ring.add(ring.upMillis, gap);
+            else
+                ring.add(ring.downMillis, gap);
+        }
+        if(up && !available) {
+            /* The service starts out up, so one that is down when first probed counts as an outage too, and its
+               recovery has an outage to repair */
+            for(Ring ring : rings)
+                ring.add(ring.outages, 1);
+            stateSince = time;
+        } else if(stateSince<0) {
+            stateSince = time;
+        } else if(!up && available) {
+            for(Ring ring : rings) {
+                ring.add(ring.recoveries, 1);
+                ring.add(ring.repairMillis, time - stateSince);
+            }
+            stateSince = time;
+        }
+        up = available;
+        lastTime = time;
+        long[][] totals = new long[rings.length][];
+        for(int i=0; i<rings.length; i++) {
+            Counter[] counters = rings[i].counters;
+            totals[i] = new long[counters.length];
+            for(int j=0; j<counters.length; j++)
+                totals[i][j] = counters[j].total;
+        }
+        snapshot = new Snapshot(time, up, stateSince, totals);
+    }
+
+    /**
+     * @param window The window
+     *
+     * @return The fraction of the time in the window that the service was up, or {@link Double#NaN} if it has
+     * not been probed in the window
+     */
+    public double getAvailability(Window window) {
+        long[] totals = totals(window);
+        long total = totals[Ring.UP_MILLIS] + totals[Ring.DOWN_MILLIS];
+        return total==0?Double.NaN:(double) totals[Ring.UP_MILLIS] / total;
+    }
+
+    /**
+     * @param window The window
+     *
+     * @return The number of outages that started in the window
+     */
+    public long getOutageCount(Window window) {
+        return totals(window)[Ring.OUTAGES];
+    }
+
+    /**
+     * @param window The window
+     *
+     * @return The mean time to recovery of the outages that ended in the window, in milliseconds, 0 if none did
+     */
+    public long getMttrMillis(Window window) {
+        long[] totals = totals(window);
+        return totals[Ring.RECOVERIES]==0?0:totals[Ring.REPAIR_MILLIS] / totals[Ring.RECOVERIES];
+    }
+
+    /**
+     * @return Whether the service was up at the last probe
+     */
+    public boolean isUp() {
+        return snapshot.up;
+    }
+
+    /**
+     * @param now The current time, in milliseconds since the epoch
+     *
+     * @return How long the service has been in its current state, in milliseconds, 0 if it has not been probed
+     */
+    public long getStreakMillis(long now) {
+        Snapshot current = snapshot;
+        return current.stateSince<0?0:Math.max(0, now - current.stateSince);
+    }
+
+    /* The totals of a window as of the last probe, all 0 if the service has not been probed within the window */
+    private long[] totals(Window window) {
+        Snapshot current = snapshot;
+        if(current.time<0 || System.currentTimeMillis() - current.time>=window.millis)
+            return Snapshot.NONE;
+        return current.totals[window.ordinal()];
+    }
+
+    /**
+     * The state and the totals of each window after a probe. It is not changed once published.
+     */
+    private static class Snapshot {
+        static final long[] NONE = new long[5];
+        final long time;
+        final boolean up;
+        final long stateSince;
+        /* For each window, the totals of its counters, in the order of Ring.counters */
+        final long[][] totals;
+
+        Snapshot(long time, boolean up, long stateSince, long[][] totals) {
+            this.time = time;
+            this.up = up;
+            this.stateSince = stateSince;
+            this.totals = totals;
+        }
+    }
+
+    private static class Counter {
+        final long[] buckets;
+        long total;
+
+        Counter(int size) {
+            buckets = new long[size];
+        }
+    }
+
+    private static class Ring {
+        static final int UP_MILLIS = 0;
+        static final int DOWN_MILLIS = 1;
+        static final int OUTAGES = 2;
+        static final int RECOVERIES = 3;
+        static final int REPAIR_MILLIS = 4;
+        final long bucketMillis;
+        final Counter upMillis;
+        final Counter downMillis;
+        final Counter outages;
+        final Counter recoveries;
+        final Counter repairMillis;
+        final Counter[] counters;
+        final int size;
+        /* The index, in buckets since the epoch, of the current bucket */
+        long current = -1;
+
+        Ring(Window window) {
+            size = window.buckets;
+            bucketMillis = window.millis / window.buckets;
+            upMillis = new Counter(size);
+            downMillis = new Counter(size);
+            outages = new Counter(size);
+            recoveries = new Counter(size);
+            repairMillis = new Counter(size);
+            counters = new Counter[]{upMillis, downMillis, outages, recoveries, repairMillis};
+        }
+
+        void advance(long time) {
+            long bucket = time / bucketMillis;
+            if(current<0 || bucket - current>=size) {
+                /* Everything in the window is older than the window */
+                for(Counter counter : counters) {
+                    Arrays.fill(counter.buckets, 0);
+                    counter.total = 0;
+                }
+            } else {
+                for(long b=current+1; b<=bucket; b++) {
+                    int index = (int) (b % size);
+                    for(Counter counter : counters) {
+                        counter.total -= counter.buckets[index];
+                        counter.buckets[index] = 0;
+                    }
+                }
+            }
+            if(bucket>current)
+                current = bucket;
+        }
+
+        void add(Counter counter, long value) {
+            counter.buckets[(int) (current % size)] += value;
+            counter.total += value;
+        }
+    }
+}
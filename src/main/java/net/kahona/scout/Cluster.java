@@ -0,0 +1,405 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shares one service list between several Scout nodes. Every node reads the same list, and each probes only the
+ * services a {@link HashRing} of the live nodes assigns to it. When a node joins or leaves, the ring is rebuilt
+ * and the services that moved are started or stopped, the others keep running.
+ *
+ * <p>Membership uses UDP heartbeats between a fixed list of nodes, there is no coordinator. Each node sends a
+ * heartbeat to every other node at an interval, carrying the state of the services it probes. A node that has
+ * not been heard from for three intervals is considered to have left, and to have joined again when its next
+ * heartbeat arrives. Every node is assumed to be up when this node starts. The states received from the other
+ * nodes are merged with the local ones into a view of every service, see {@link #getView()}.</p>
+ *
+ * <p>Until heartbeats have been exchanged nodes may briefly disagree on the ring, and a service may be probed by
+ * two nodes, or by none, for up to one interval. Heartbeats are not authenticated, bind to a loopback or private
+ * interface.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class Cluster {
+    private static final int MAGIC = 0x53434c31;
+    /* Keeps datagrams well below the IPv4 limit */
+    private static final int MAX_DATAGRAM = 8192;
+    private final String self;
+    private final List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+    private final MonitorRegistry monitors;
+    private final DatagramSocket socket;
+    private final long intervalNanos;
+    private final Map<String, Service> services = new LinkedHashMap<String, Service>();
+    private final ConcurrentMap<String, Member> members = new ConcurrentHashMap<String, Member>();
+    private final Thread heartbeat;
+    private final Thread receiver;
+    private volatile HashRing ring;
+    private volatile boolean running = true;
+
+    /**
+     * Create a {@code Cluster} node and start sending heartbeats.
+     *
+     * @param address The address this node receives heartbeats on, also its id in the cluster
+     * @param nodes The addresses of all nodes, this node's address may be included
+     * @param interval The time between heartbeats
+     * @param unit The time unit of the interval
+     * @param monitors The registry the services this node owns are started in
+     *
+     * @throws SocketException if the address cannot be bound to
+     */
+    public Cluster(InetSocketAddress address,
+                   Collection<InetSocketAddress> nodes,
+                   long interval,
+                   TimeUnit unit,
+                   MonitorRegistry monitors) throws SocketException {
+        this.self = idOf(address);
+        this.monitors = monitors;
+        this.intervalNanos = unit.toNanos(interval);
+        /* Assume every node is up until it has missed its heartbeats, so a node that starts does not probe every
+           service until it has heard from the others */
+        long now = System.nanoTime();
+        for(InetSocketAddress node : nodes) {
+            if(idOf(node).equals(self))
+                continue;
+            peers.add(node);
+            Member member = new Member();
+            member.lastSeen = now;
+            members.put(idOf(node), member);
+        }
+        socket = new DatagramSocket(address);
+        ring = new HashRing(getMembers());
+        receiver = new ProbeScheduler.NamedThreadFactory("scout-cluster").newThread(new Receiver());
+        receiver.start();
+        /* Heartbeats have their own thread, a busy probe pool must not make this node look dead to the others */
+        heartbeat = new ProbeScheduler.NamedThreadFactory("scout-heartbeat").newThread(new Heartbeat());
+        heartbeat.start();
+    }
+
+    /**
+     * Start a {@code Cluster} node if the {@code scout.cluster.nodes} system property is set, a comma separated list
+     * of the {@code host:port} of every node. This node's address is set with {@code scout.cluster.address}, and the
+     * time between heartbeats, in milliseconds, with {@code scout.cluster.heartbeat} (default 500).
+     *
+     * @param monitors The registry the services this node owns are started in
+     *
+     * @return The started node, or {@code null} if cluster mode is not enabled
+     *
+     * @throws SocketException if the address cannot be bound to
+     * @throws IllegalArgumentException if {@code scout.cluster.address} is not set, or an address is invalid
+     */
+    public static Cluster startIfEnabled(MonitorRegistry monitors) throws SocketException {
+        String nodes = System.getProperty("scout.cluster.nodes");
+        if(nodes==null || nodes.trim().length()==0)
+            return null;
+        String address = System.getProperty("scout.cluster.address");
+        if(address==null)
+            throw new IllegalArgumentException("scout.cluster.address must be set when scout.cluster.nodes is set");
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        for(String node : nodes.split(","))
+            addresses.add(parse(node.trim()));
+        return new Cluster(parse(address.trim()),
+                           addresses,
+                           Long.getLong("scout.cluster.heartbeat", 500),
+                           TimeUnit.MILLISECONDS,
+                           monitors);
+    }
+
+    private static InetSocketAddress parse(String address) {
+        int separator = address.lastIndexOf(':');
+        if(separator<=0)
+            throw new IllegalArgumentException("The cluster address [" + address + "] must be in the form of " +
+                                               "host:port");
+        try {
+            return new InetSocketAddress(address.substring(0, separator),
+                                         Integer.parseInt(address.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The cluster address [" + address + "] is invalid", e);
+        }
+    }
+
+    private static String idOf(InetSocketAddress address) {
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * @return The id of this node, its {@code host:port}
+     */
+    public String getId() {
+        return self;
+    }
+
+    /**
+     * @return The ids of the live nodes, including this one
+     */
+    public SortedSet<String> getMembers() {
+        SortedSet<String> ids = new TreeSet<String>(members.keySet());
+        ids.add(self);
+        return ids;
+    }
+
+    /**
+     * Set the service list, replacing any previous list.
+     *
+     * @param list The services of the cluster
+     */
+    public synchronized void setServices(Collection<Service> list) {
+        services.clear();
+        for(Service service : list)
+            services.put(service.getName(), service);
+        rebalance(Collections.<String>emptySet());
+    }
+
+    /**
+     * Apply a change to the service list. Owned services that changed are rescheduled.
+     *
+     * @param diff The change
+     */
+    public synchronized void apply(ConfigurationDiff diff) {
+        Set<String> changed = new HashSet<String>();
+        for(Service service : diff.getRemoved())
+            services.remove(service.getName());
+        for(Service service : diff.getChanged()) {
+            services.put(service.getName(), service);
+            changed.add(service.getName());
+        }
+        for(Service service : diff.getAdded())
+            services.put(service.getName(), service);
+        rebalance(changed);
+    }
+
+    /**
+     * Get the node that probes a service.
+     *
+     * @param name The name of the service
+     *
+     * @return The id of the node
+     */
+    public String getOwner(String name) {
+        return ring.owner(name);
+    }
+
+    /**
+     * Get the state of every service in the cluster, probed by this node or reported by the node that owns it.
+     * A service whose owner has not reported it yet is {@link ServiceMetrics#UNKNOWN}.
+     *
+     * @return The state of each service, {@link ServiceMetrics#UP}, {@link ServiceMetrics#DOWN} or
+     * {@link ServiceMetrics#UNKNOWN}, by name in configuration order
+     */
+    public Map<String, Integer> getView() {
+        List<String> names;
+        synchronized(this) {
+            names = new ArrayList<String>(services.keySet());
+        }
+        Map<String, Integer> view = new LinkedHashMap<String, Integer>();
+        for(String name : names) {
+            String owner = ring.owner(name);
+            int state = ServiceMetrics.UNKNOWN;
+            if(self.equals(owner)) {
+                ServiceMonitor monitor = monitors.get(name);
+                if(monitor!=null)
+                    state = monitor.getMetrics().getState();
+            } else {
+                Member member = members.get(owner);
+                Integer reported = member==null?null:member.states.get(name);
+                if(reported!=null)
+                    state = reported;
+            }
+            view.put(name, state);
+        }
+        return view;
+    }
+
+    /**
+     * Stop sending heartbeats and leave the cluster. The monitors are left running.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(heartbeat);
+        socket.close();
+    }
+
+    /*
+     * Start the services this node owns and is not probing, stop those it no longer owns
+     */
+    private synchronized void rebalance(Set<String> changed) {
+        HashRing current = ring;
+        Set<String> started = new HashSet<String>();
+        for(ServiceMonitor monitor : monitors.getMonitors())
+            started.add(monitor.getService().getName());
+        for(Service service : services.values()) {
+            boolean owned = self.equals(current.owner(service.getName()));
+            boolean probing = started.remove(service.getName());
+            if(owned && !probing)
+                monitors.start(service);
+            else if(owned && changed.contains(service.getName()))
+                monitors.update(service);
+            else if(!owned && probing)
+                monitors.stop(service.getName());
+        }
+        /* Services no longer in the list */
+        for(String name : started)
+            monitors.stop(name);
+    }
+
+    private void heartbeat() {
+        long now = System.nanoTime();
+        boolean left = false;
+        for(Iterator<Member> it = members.values().iterator(); it.hasNext();) {
+            if(now - it.next().lastSeen > intervalNanos * 3) {
+                it.remove();
+                left = true;
+            }
+        }
+        if(left)
+            membershipChanged();
+        try {
+            for(byte[] message : encode()) {
+                for(InetSocketAddress peer : peers)
+                    socket.send(new DatagramPacket(message, message.length, peer));
+            }
+        } catch (IOException e) {
+            if(running)
+                System.err.println("Unable to send cluster heartbeat, " + e.getMessage());
+        }
+    }
+
+    private void membershipChanged() {
+        synchronized(this) {
+            ring = new HashRing(getMembers());
+            rebalance(Collections.<String>emptySet());
+        }
+    }
+
+    /*
+     * A heartbeat is one or more datagrams, each holding the sender's id and the state of some of the services it
+     * probes. An idle node sends one datagram with no states.
+     */
+    private List<byte[]> encode() throws IOException {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_DATAGRAM);
+        List<String> names = new ArrayList<String>();
+        List<Integer> states = new ArrayList<Integer>();
+        for(ServiceMonitor monitor : monitors.getMonitors()) {
+            names.add(monitor.getService().getName());
+            states.add(monitor.getMetrics().getState());
+        }
+        int i = 0;
+        do {
+            bytes.reset();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeUTF(self);
+            int countAt = out.size();
+            out.writeShort(0);
+            int count = 0;
+            for(; i<names.size() && out.size()<MAX_DATAGRAM - 1024; i++, count++) {
+                out.writeUTF(names.get(i));
+                out.writeByte(states.get(i));
+            }
+            out.flush();
+            byte[] message = bytes.toByteArray();
+            message[countAt] = (byte) (count >>> 8);
+            message[countAt + 1] = (byte) count;
+            messages.add(message);
+        } while(i<names.size());
+        return messages;
+    }
+
+    private void receive(byte[] data, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if(in.readInt()!=MAGIC)
+            return;
+        String id = in.readUTF();
+        if(id.equals(self))
+            return;
+        Member member = members.get(id);
+        boolean joined = false;
+        if(member==null) {
+            Member previous = members.putIfAbsent(id, member = new Member());
+            if(previous!=null)
+                member = previous;
+            else
+                joined = true;
+        }
+        member.lastSeen = System.nanoTime();
+        int count = in.readUnsignedShort();
+        for(int i=0; i<count; i++) {
+            String name = in.readUTF();
+            member.states.put(name, (int) in.readByte());
+        }
+        if(joined)
+            membershipChanged();
+    }
+
+    private static class Member {
+        final ConcurrentMap<String, Integer> states = new ConcurrentHashMap<String, Integer>();
+        volatile long lastSeen;
+    }
+
+    private class Heartbeat implements Runnable {
+        public void run() {
+            long next = System.nanoTime();
+            while(running) {
+                long sleep = next - System.nanoTime();
+                if(sleep>0) {
+                    LockSupport.parkNanos(sleep);
+                    continue;
+                }
+                try {
+                    heartbeat();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                next += intervalNanos;
+                /* After a stall, send the next heartbeat an interval from now rather than a burst of them */
+                if(next - System.nanoTime()<0)
+                    next = System.nanoTime() + intervalNanos;
+            }
+        }
+    }
+
+    private class Receiver implements Runnable {
+        public void run() {
+            byte[] buffer = new byte[65507];
+            while(running) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                    receive(packet.getData(), packet.getLength());
+                } catch (IOException e) {
+                    if(running && !socket.isClosed())
+                        System.err.println("Unable to read cluster heartbeat, " + e.getMessage());
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The services that were added, removed or changed when the configuration was reloaded.
+ *
+ * @author Dennis Reedy
+ */
+public class ConfigurationDiff {
+    private final List<Service> added;
+    private final List<Service> removed;
+    private final List<Service> changed;
+
+    public ConfigurationDiff(List<Service> added, List<Service> removed, List<Service> changed) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+    }
+
+    public List<Service> getAdded() {
+        return added;
+    }
+
+    public List<Service> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The new definitions of services whose name is unchanged but whose other attributes changed
+     */
+    public List<Service> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    public String toString() {
+        return "added: " + added.size() + ", removed: " + removed.size() + ", changed: " + changed.size();
+    }
+}
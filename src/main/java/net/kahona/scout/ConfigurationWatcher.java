@@ -0,0 +1,127 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches scout.xml for changes made outside of Scout. Once the file has been quiet for a short time it is
+ * reloaded with {@link Configuration#reload()}, and the listener is notified of the services that changed.
+ * Changes written by Scout itself produce an empty diff and are not reported.
+ *
+ * @author Dennis Reedy
+ */
+public class ConfigurationWatcher {
+    private static final long QUIET_PERIOD_MILLIS = 200;
+    private final File configurationFile;
+    private final Listener listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Notified when the configuration has changed.
+     */
+    public interface Listener {
+        void configurationChanged(ConfigurationDiff diff);
+    }
+
+    /**
+     * Create and start a {@code ConfigurationWatcher}.
+     *
+     * @param configurationFile The file to watch
+     * @param listener Notified when the configuration has changed
+     *
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public ConfigurationWatcher(File configurationFile, Listener listener) throws IOException {
+        this.configurationFile = configurationFile;
+        this.listener = listener;
+        Path directory = configurationFile.getAbsoluteFile().getParentFile().toPath();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY,
+                           StandardWatchEventKinds.ENTRY_DELETE);
+        thread = new ProbeScheduler.NamedThreadFactory("scout-config-watcher").newThread(new Watcher());
+        thread.start();
+    }
+
+    /**
+     * Watch {@code ~/.kahona/scout.xml}.
+     *
+     * @param listener Notified when the configuration has changed
+     *
+     * @return A started {@code ConfigurationWatcher}
+     *
+     * @throws IOException if the configuration directory cannot be watched
+     */
+    public static ConfigurationWatcher watch(Listener listener) throws IOException {
+        return new ConfigurationWatcher(Configuration.getConfigurationFile(), listener);
+    }
+
+    /**
+     * Stop watching.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isConfigurationChange(WatchKey key) {
+        boolean changed = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind()==StandardWatchEventKinds.OVERFLOW ||
+               configurationFile.getName().equals(String.valueOf(event.context())))
+                changed = true;
+        }
+        key.reset();
+        return changed;
+    }
+
+    private class Watcher implements Runnable {
+        public void run() {
+            try {
+                while(true) {
+                    if(!isConfigurationChange(watchService.take()))
+                        continue;
+                    /* Editors and scripts often write a file more than once, wait for it to settle */
+                    WatchKey key;
+                    while((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS))!=null)
+                        isConfigurationChange(key);
+                    try {
+                        ConfigurationDiff diff = Configuration.reload();
+                        if(!diff.isEmpty())
+                            listener.configurationChanged(diff);
+                    } catch (RuntimeException e) {
+                        /* For example a monitor that failed to start, keep watching for the next change */
+                        System.err.println("Unable to apply the changed configuration");
+                        e.printStackTrace();
+                    }
+                }
+            } catch (ClosedWatchServiceException e) {
+                /* Closed */
+            } catch (InterruptedException e) {
+                /* Closed */
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Probes network services using non-blocking connects. A single I/O thread multiplexes all in-flight connect
+ * attempts with a {@link Selector}, attempts that have not completed by their deadline are closed and reported as
+ * timed out. Results are delivered on the provided {@link Executor}, never on the I/O thread.
+ *
+ * <p>An error while starting or finishing an attempt fails that attempt only. If the selector itself fails, the
+ * attempts it was waiting on are failed and a new selector is opened, so probing never stops for good.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class ConnectProber {
+    private static final ConnectProber DEFAULT = new ConnectProber(ProbeScheduler.getDefault());
+    private volatile Selector selector;
+    private final Executor callbackExecutor;
+    private final Queue<Attempt> requests = new ConcurrentLinkedQueue<Attempt>();
+    private final PriorityQueue<Attempt> deadlines = new PriorityQueue<Attempt>();
+    private final Thread ioThread;
+    private volatile boolean running = true;
+
+    /**
+     * Notified when a connect attempt completes.
+     */
+    public interface Callback {
+        /**
+         * The connection was established.
+         *
+         * @param connectNanos The time taken to establish the connection, in nanoseconds
+         */
+        void connected(long connectNanos);
+
+        /**
+         * The connection could not be established, or was not established within the timeout.
+         *
+         * @param cause The reason the attempt failed, a {@link SocketTimeoutException} if it timed out
+         * @param elapsedNanos The time taken before the attempt failed, in nanoseconds
+         */
+        void failed(IOException cause, long elapsedNanos);
+    }
+
+    /**
+     * Create a {@code ConnectProber}.
+     *
+     * @param callbackExecutor The executor to deliver results on
+     *
+     * @throws IllegalStateException if a selector cannot be opened
+     */
+    public ConnectProber(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open selector", e);
+        }
+        ioThread = new ProbeScheduler.NamedThreadFactory("scout-connect").newThread(new Multiplexer());
+        ioThread.start();
+    }
+
+    /**
+     * Get the prober shared by all {@link ServiceMonitor}s in this process.
+     *
+     * @return The default {@code ConnectProber}
+     */
+    public static ConnectProber getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Start a connect attempt. This method does not block.
+     *
+     * @param address The address to connect to
+     * @param timeoutMillis The maximum time to wait for the connection to be established
+     * @param callback Notified with the result of the attempt
+     */
+    public void connect(SocketAddress address, long timeoutMillis, Callback callback) {
+        if(!running) {
+            deliver(callback, 0, new IOException("ConnectProber has been shutdown"));
+            return;
+        }
+        requests.add(new Attempt(address, timeoutMillis, callback));
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the I/O thread. Attempts in flight are not reported.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void deliver(final Callback callback, final long connectNanos, final IOException cause) {
+        try {
+            callbackExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if(cause==null)
+                            callback.connected(connectNanos);
+                        else
+                            callback.failed(cause, connectNanos);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            /* The executor rejected the result, it is shutting down */
+            e.printStackTrace();
+        }
+    }
+
+    private void start(Attempt attempt) {
+        try {
+            attempt.channel = SocketChannel.open();
+            attempt.channel.configureBlocking(false);
+            attempt.started = System.nanoTime();
+            attempt.deadline = attempt.started + TimeUnit.MILLISECONDS.toNanos(attempt.timeoutMillis);
+            if(attempt.channel.connect(attempt.address)) {
+                complete(attempt, null);
+            } else {
+                attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                deadlines.add(attempt);
+            }
+        } catch (IOException e) {
+            complete(attempt, e);
+        } catch (UnresolvedAddressException e) {
+            complete(attempt, new UnknownHostException(attempt.address.toString()));
+        } catch (ClosedSelectorException e) {
+            /* Start the attempt again once the selector has been reopened */
+            close(attempt.channel);
+            requests.add(attempt);
+            throw e;
+        } catch (RuntimeException e) {
+            complete(attempt, new IOException("Connect to " + attempt.address + " failed", e));
+        }
+    }
+
+    private void finish(Attempt attempt) {
+        try {
+            if(attempt.channel.finishConnect())
+                complete(attempt, null);
+        } catch (IOException e) {
+            complete(attempt, e);
+        } catch (RuntimeException e) {
+            complete(attempt, new IOException("Connect to " + attempt.address + " failed", e));
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        Attempt attempt;
+        while((attempt = deadlines.peek())!=null && (attempt.done || attempt.deadline-now<=0)) {
+            deadlines.poll();
+            if(!attempt.done)
+                complete(attempt, new SocketTimeoutException("connect timed out"));
+        }
+    }
+
+    private void complete(Attempt attempt, IOException cause) {
+        if(attempt.done)
+            return;
+        long connectNanos = System.nanoTime() - attempt.started;
+        attempt.done = true;
+        close(attempt.channel);
+        deliver(attempt.callback, connectNanos, cause);
+    }
+
+    private static void close(SocketChannel channel) {
+        if(channel!=null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* Closing an unconnected channel, nothing to do */
+            }
+        }
+    }
+
+    /* Fail the attempts the broken selector was waiting on and replace it */
+    private void reopen(Exception cause) {
+        System.err.println("Connect selector failed, reopening it: " + cause);
+        Attempt attempt;
+        while((attempt = deadlines.poll())!=null)
+            complete(attempt, new IOException("Connect to " + attempt.address + " failed, selector error", cause));
+        try {
+            selector.close();
+        } catch (IOException e) {
+            /* Replacing it anyway */
+        }
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            /* Try again shortly, until then select() fails on the closed selector */
+            LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private void select() throws IOException {
+        Attempt attempt;
+        while((attempt = requests.poll())!=null)
+            start(attempt);
+        expire();
+        Attempt next = deadlines.peek();
+        long timeout = 0;
+        if(next!=null)
+            timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime()));
+        selector.select(timeout);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            attempt = (Attempt) key.attachment();
+            try {
+                if(key.isValid() && key.isConnectable())
+                    finish(attempt);
+            } catch (CancelledKeyException e) {
+                complete(attempt, new IOException("Connect to " + attempt.address + " was cancelled"));
+            }
+        }
+    }
+
+    private class Multiplexer implements Runnable {
+        public void run() {
+            while(running) {
+                try {
+                    select();
+                } catch (IOException e) {
+                    reopen(e);
+                } catch (ClosedSelectorException e) {
+                    if(running)
+                        reopen(e);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            for(Attempt attempt : deadlines)
+                close(attempt.channel);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                /* Ignore, shutting down */
+            }
+        }
+    }
+
+    private static class Attempt implements Comparable<Attempt> {
+        final SocketAddress address;
+        final long timeoutMillis;
+        final Callback callback;
+        SocketChannel channel;
+        long started;
+        long deadline;
+        boolean done;
+
+        Attempt(SocketAddress address, long timeoutMillis, Callback callback) {
+            this.address = address;
+            this.timeoutMillis = timeoutMillis;
+            this.callback = callback;
+        }
+
+        public int compareTo(Attempt other) {
+            long diff = deadline - other.deadline;
+            return diff<0?-1:(diff>0?1:0);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A socket whose reads together block no longer than a deadline, rather than each read waiting for up to the
+ * socket's timeout. Before each read the timeout is set to the time that is left. A TLS socket layered over it
+ * reads through it, so the deadline also bounds a handshake, however many reads it takes.
+ *
+ * @author Dennis Reedy
+ */
+final class DeadlineSocket extends Socket {
+    private volatile long deadline;
+
+    /**
+     * Create an unconnected {@code DeadlineSocket}.
+     *
+     * @param deadline When reads must complete by, in {@link System#nanoTime()} terms
+     */
+    DeadlineSocket(long deadline) {
+        this.deadline = deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Connect, waiting no longer than the deadline.
+     *
+     * @param address The address to connect to
+     */
+    void connect(InetSocketAddress address) throws IOException {
+        connect(address, remainingMillis(deadline));
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return new FilterInputStream(super.getInputStream()) {
+            public int read() throws IOException {
+                setSoTimeout(remainingMillis(deadline));
+                return super.read();
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                setSoTimeout(remainingMillis(deadline));
+                return super.read(buffer, offset, length);
+            }
+        };
+    }
+
+    /**
+     * Get the time left until a deadline.
+     *
+     * @param deadline The deadline, in {@link System#nanoTime()} terms
+     *
+     * @return The time left, in milliseconds, at least 1
+     *
+     * @throws SocketTimeoutException If the deadline has passed
+     */
+    static int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.nanoTime();
+        if(remaining<=0)
+            throw new SocketTimeoutException("Probe timed out");
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+}
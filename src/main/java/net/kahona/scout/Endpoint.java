@@ -0,0 +1,379 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A host and port, probed on behalf of every {@link ServiceMonitor} whose service has that address and
+ * {@link Probe}. Services that share an address under different names or frequencies cost one probe: the endpoint
+ * is probed at the shortest period any of its monitors asks for, with the longest timeout and most urgent priority
+ * of its monitors, and each result is delivered to all of them.
+ *
+ * <p>A failed probe is confirmed before a service is notified. While any monitor has seen fewer consecutive
+ * failures than its service's failure threshold, the endpoint is re-probed immediately, at
+ * {@link ProbeAdmission.Priority#CRITICAL} priority and with a sub-timeout derived from the latency the monitors
+ * have observed: the largest p99 multiplied by {@code scout.hedge.multiplier} (default 4), at least
+ * {@code scout.hedge.minTimeout} milliseconds (default 50) and at most the timeout. A re-probe that is slower than
+ * that times out and the next one starts, so a dropped SYN, which would otherwise wait for a retransmit, is
+ * answered by the next re-probe instead of raising an alert.</p>
+ *
+ * <p>Re-probes run one after another, they are not hedged in parallel. Until a re-probe completes or times out it
+ * holds the endpoint's in-flight slot and its admission slot, so once a probe has failed, a failure is confirmed
+ * within {@code failureThreshold} times the sub-timeout. The scheduled probes that fall due meanwhile are skipped,
+ * and counted as skipped ticks of each service.</p>
+ *
+ * <p>An endpoint is created when the first monitor of its address joins, and stops being probed when the last one
+ * leaves. It is probed on the scheduler, and in the {@link ServiceMonitor.ProbeMode}, of the monitor that created
+ * it. Probes other than TCP are run on their own pool of {@code scout.probe.blockingWorkers} threads (default 16),
+ * so endpoints that hang cannot hold up the scheduler's workers.</p>
+ *
+ * @author Dennis Reedy
+ */
+final class Endpoint implements Runnable, ConnectProber.Callback {
+    private static final Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+    static final int HEDGE_MULTIPLIER = Integer.getInteger("scout.hedge.multiplier", 4);
+    static final int HEDGE_MIN_TIMEOUT_MILLIS = Integer.getInteger("scout.hedge.minTimeout", 50);
+    private final String key;
+    private final ProbeSpec spec;
+    private final Probe probe;
+    private final ProbeScheduler scheduler;
+    private final ServiceMonitor.ProbeMode probeMode;
+    private final List<ServiceMonitor> monitors = new CopyOnWriteArrayList<ServiceMonitor>();
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+    private final Runnable admitted = new Runnable() {
+        public void run() {
+            probe();
+        }
+    };
+    private ProbeScheduler.ScheduledProbe scheduledProbe;
+    private long scheduledPeriodNanos;
+    private volatile int timeoutMillis;
+    private volatile boolean confirming;
+    private volatile long startedNanos;
+
+    private Endpoint(String key, ProbeSpec spec, ProbeScheduler scheduler, ServiceMonitor.ProbeMode probeMode) {
+        this.key = key;
+        this.spec = spec;
+        this.scheduler = scheduler;
+        this.probeMode = probeMode;
+        if(TcpProbe.TYPE.equals(spec.getProbeType()))
+            probe = TcpProbe.forMode(probeMode);
+        else
+            probe = ProbeRegistry.getDefault().get(spec.getProbeType());
+    }
+
+    /**
+     * Add a monitor to the endpoint of its service's address, creating and scheduling the endpoint if needed.
+     *
+     * @param monitor The monitor
+     * @param scheduler The scheduler to probe a new endpoint on
+     * @param probeMode How to probe a new endpoint
+     *
+     * @return The endpoint
+     */
+    static Endpoint join(ServiceMonitor monitor, ProbeScheduler scheduler, ServiceMonitor.ProbeMode probeMode) {
+        ProbeSpec spec = monitor.getProbeSpec();
+        String key = keyOf(spec);
+        synchronized(endpoints) {
+            Endpoint endpoint = endpoints.get(key);
+            if(endpoint==null) {
+                endpoint = new Endpoint(key, spec, scheduler, probeMode);
+                endpoints.put(key, endpoint);
+            }
+            endpoint.monitors.add(monitor);
+            endpoint.reschedule();
+            return endpoint;
+        }
+    }
+
+    /**
+     * Remove a monitor from the endpoint, the endpoint stops being probed once it has no monitors.
+     *
+     * @param monitor The monitor
+     */
+    void leave(ServiceMonitor monitor) {
+        synchronized(endpoints) {
+            monitors.remove(monitor);
+            if(monitors.isEmpty()) {
+                endpoints.remove(key);
+                synchronized(this) {
+                    if(scheduledProbe!=null)
+                        scheduledProbe.cancel();
+                    scheduledProbe = null;
+                }
+            } else {
+                reschedule();
+            }
+        }
+    }
+
+    /**
+     * Get the key that identifies the endpoint of a spec: its host, in lower case and without a trailing dot, and
+     * port, and unless it is probed with TCP, its probe type and path.
+     *
+     * @param spec The spec
+     *
+     * @return The key
+     */
+    static String keyOf(ProbeSpec spec) {
+        String normalized = spec.getHost().trim().toLowerCase(Locale.ROOT);
+        if(normalized.endsWith("."))
+            normalized = normalized.substring(0, normalized.length() - 1);
+        String address = normalized + ":" + spec.getPort();
+        if(TcpProbe.TYPE.equals(spec.getProbeType()))
+            return address;
+        return spec.getProbeType() + "://" + address + spec.getPath();
+    }
+
+    /**
+     * @return The number of endpoints being probed
+     */
+    static int count() {
+        synchronized(endpoints) {
+            return endpoints.size();
+        }
+    }
+
+    /**
+     * Get the delay of the first probe of an endpoint, a point within its period derived from its key. Endpoints
+     * created together, at startup or by a reload, are spread across their periods instead of all being probed at
+     * once, and an endpoint keeps its phase across restarts.
+     *
+     * @param key The key of the endpoint
+     * @param periodNanos The period of the endpoint, in nanoseconds
+     *
+     * @return The delay, in nanoseconds
+     */
+    static long phaseOffset(String key, long periodNanos) {
+        long hash = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return (hash >>> 1) % periodNanos;
+    }
+
+    /**
+     * Probe at the shortest period the endpoint's monitors ask for. If the period changed the endpoint is next
+     * probed after the new period.
+     */
+    synchronized void reschedule() {
+        if(monitors.isEmpty())
+            return;
+        long periodNanos = Long.MAX_VALUE;
+        for(ServiceMonitor monitor : monitors)
+            periodNanos = Math.min(periodNanos, monitor.getPeriodNanos());
+        if(scheduledProbe==null) {
+            scheduledPeriodNanos = periodNanos;
+            scheduledProbe = scheduler.schedule(this,
+                                                phaseOffset(key, periodNanos),
+                                                periodNanos,
+                                                TimeUnit.NANOSECONDS);
+        } else if(periodNanos!=scheduledPeriodNanos) {
+            scheduledProbe.cancel();
+            scheduledPeriodNanos = periodNanos;
+            scheduledProbe = scheduler.schedule(this, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return Whether a probe of the endpoint has been started and has not yet completed
+     */
+    boolean isProbeInFlight() {
+        return inFlight.get();
+    }
+
+    public void run() {
+        ProbeScheduler.ScheduledProbe scheduled;
+        synchronized(this) {
+            scheduled = scheduledProbe;
+        }
+        /* A probe handed off to the connect multiplexer, a virtual thread or the blocking pool may still be in
+           flight from the previous tick, let it complete */
+        if(!inFlight.compareAndSet(false, true)) {
+            if(scheduled!=null)
+                scheduled.skip();
+            /* The ticks a scheduled probe overran are counted from its duration, those skipped while confirming a
+               failure are counted here */
+            if(confirming) {
+                for(ServiceMonitor monitor : monitors)
+                    monitor.getMetrics().recordSkippedTick();
+            }
+            return;
+        }
+        /* Measure from when the tick was due, so time spent waiting for a worker counts */
+        startedNanos = scheduled==null?System.nanoTime():scheduled.getDueNanos();
+        int timeout = 0;
+        ProbeAdmission.Priority priority = ProbeAdmission.Priority.LOW;
+        for(ServiceMonitor monitor : monitors) {
+            ProbeSpec spec = monitor.getProbeSpec();
+            timeout = Math.max(timeout, spec.getTimeoutMillis());
+            if(spec.getPriority().compareTo(priority)<0)
+                priority = spec.getPriority();
+        }
+        if(timeout==0) {
+            /* Every monitor has left */
+            inFlight.set(false);
+            return;
+        }
+        timeoutMillis = timeout;
+        ProbeAdmission.getDefault().submit(spec.getHost(), priority, admitted);
+    }
+
+    private void probe() {
+        final InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(ResolverCache.getDefault().resolve(spec.getHost()), spec.getPort());
+        } catch (UnknownHostException e) {
+            failed(e, 0);
+            return;
+        }
+        if(probeMode==ServiceMonitor.ProbeMode.VIRTUAL && VirtualThreads.EXECUTOR!=null) {
+            VirtualThreads.EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    probe(address);
+                }
+            });
+        } else if(!(probe instanceof TcpProbe)) {
+            /* HTTP, TLS and other probes block for up to their timeout, keep them off the scheduler's workers */
+            BlockingProbes.EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    probe(address);
+                }
+            });
+        } else {
+            /* Without virtual threads a blocking TCP probe runs on this worker thread */
+            probe(address);
+        }
+    }
+
+    private void probe(InetSocketAddress address) {
+        long started = System.nanoTime();
+        try {
+            probe.probe(spec, address, timeoutMillis, this);
+        } catch (RuntimeException e) {
+            failed(new IOException(probe.getType() + " probe of " + key + " failed", e), System.nanoTime() - started);
+        }
+    }
+
+    public void connected(long connectNanos) {
+        completed(true, connectNanos);
+    }
+
+    public void failed(IOException cause, long elapsedNanos) {
+        completed(false, elapsedNanos);
+    }
+
+    private void completed(boolean available, long connectNanos) {
+        boolean confirm = false;
+        boolean scheduled = !confirming;
+        try {
+            for(ServiceMonitor monitor : monitors) {
+                try {
+                    monitor.probeCompleted(this, available, connectNanos, confirming);
+                    confirm |= !available && monitor.isConfirmingFailure();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(scheduled) {
+                long durationNanos = System.nanoTime() - startedNanos;
+                for(ServiceMonitor monitor : monitors)
+                    monitor.getMetrics().recordDuration(durationNanos, monitor.getPeriodNanos());
+            }
+            if(!confirm)
+                reschedule();
+        } finally {
+            ProbeAdmission.getDefault().release(spec.getHost());
+            confirming = confirm;
+            if(confirm)
+                confirm();
+            else
+                inFlight.set(false);
+        }
+    }
+
+    /**
+     * Re-probe the endpoint now to confirm a failure. The endpoint stays in flight, so scheduled probes are skipped
+     * until the failure is confirmed or the endpoint is found to be available.
+     */
+    private void confirm() {
+        try {
+            timeoutMillis = hedgeTimeoutMillis();
+            ProbeAdmission.getDefault().submit(spec.getHost(), ProbeAdmission.Priority.CRITICAL, admitted);
+        } catch (RuntimeException e) {
+            confirming = false;
+            inFlight.set(false);
+            throw e;
+        }
+    }
+
+    private int hedgeTimeoutMillis() {
+        int timeout = 0;
+        long p99 = 0;
+        for(ServiceMonitor monitor : monitors) {
+            timeout = Math.max(timeout, monitor.getProbeSpec().getTimeoutMillis());
+            LatencySnapshot latency = monitor.getLatency();
+            if(latency.getCount()>0)
+                p99 = Math.max(p99, latency.getP99());
+        }
+        if(p99==0)
+            return timeout;
+        long derived = TimeUnit.MICROSECONDS.toMillis(p99 * HEDGE_MULTIPLIER);
+        return (int) Math.min(timeout, Math.max(HEDGE_MIN_TIMEOUT_MILLIS, derived));
+    }
+
+    public String toString() {
+        return "Endpoint [ " + key + ", monitors: " + monitors.size() + "]";
+    }
+
+    /**
+     * Holds the executor blocking probes run on, created when the first one is made.
+     */
+    private static class BlockingProbes {
+        static final Executor EXECUTOR =
+            Executors.newFixedThreadPool(Integer.getInteger("scout.probe.blockingWorkers", 16),
+                                         new ProbeScheduler.NamedThreadFactory("scout-blocking-probe"));
+    }
+
+    /**
+     * Holds the executor used for {@link ServiceMonitor.ProbeMode#VIRTUAL}. It is looked up reflectively so Scout
+     * still runs on JVMs without virtual threads, in which case the executor is {@code null}.
+     */
+    private static class VirtualThreads {
+        static final Executor EXECUTOR = create();
+
+        private static Executor create() {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) factory.invoke(null);
+            } catch (Exception e) {
+                System.err.println("Virtual threads are not supported by this JVM, " +
+                                   "VIRTUAL probes will run on the scheduler's worker threads");
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers service notifications from probe threads to subscribers asynchronously. Monitors notify the bus as their
+ * {@link NotificationListener}, which turns each notification into a {@link ServiceEvent} and offers it to every
+ * subscriber's queue without locking or blocking, so a slow subscriber never delays probing.
+ *
+ * <p>Each subscriber has its own dispatch thread that delivers its events in order, in batches of up to the
+ * subscriber's batch size. A subscriber's queue is bounded, when it is full the subscriber's {@link Overflow}
+ * policy decides which events are dropped, and the drops are counted.</p>
+ *
+ * <p>Events that must not be lost are appended to the {@link EventJournal} directly from {@link #publish}. The
+ * journal's append never blocks, and it counts the events its writer could not keep up with.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class EventBus implements NotificationListener {
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private volatile EventJournal journal;
+
+    /**
+     * What a subscriber's queue does when it is full.
+     */
+    public enum Overflow {
+        /**
+         * Drop the oldest queued event to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Keep only the latest queued event of each service. The queue then never holds more events than there
+         * are services, so it does not overflow.
+         */
+        COALESCE
+    }
+
+    /**
+     * Receives the events of a subscription, on the subscription's dispatch thread.
+     */
+    public interface Subscriber {
+        /**
+         * @param events The events, oldest first, never empty. The list is reused once the call returns
+         */
+        void serviceEvents(List<ServiceEvent> events);
+    }
+
+    public void serviceIsNowAvailable(Service service) {
+        publish(new ServiceEvent(service, ServiceEvent.Type.AVAILABLE, System.currentTimeMillis()));
+    }
+
+    public void serviceNotAvailable(Service service) {
+        publish(new ServiceEvent(service, ServiceEvent.Type.NOT_AVAILABLE, System.currentTimeMillis()));
+    }
+
+    /**
+     * Offer an event to every subscriber. This method does not block.
+     *
+     * @param event The event
+     */
+    public void publish(ServiceEvent event) {
+        EventJournal current = journal;
+        if(current!=null)
+            current.append(event);
+        for(Subscription subscription : subscriptions)
+            subscription.offer(event);
+    }
+
+    /**
+     * Append every published event to a journal, on the publishing thread.
+     *
+     * @param journal The journal, or {@code null} to stop journaling
+     */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return The subscriptions that are running
+     */
+    public List<Subscription> getSubscriptions() {
+        return new ArrayList<Subscription>(subscriptions);
+    }
+
+    /**
+     * Subscribe a {@link NotificationListener}, called with one event at a time. Up to 1024 events are queued, the
+     * oldest are dropped after that.
+     *
+     * @param name The name of the subscription, used to name its dispatch thread
+     * @param listener The listener
+     *
+     * @return The {@code Subscription}
+     */
+    public Subscription subscribe(String name, final NotificationListener listener) {
+        return subscribe(name, new Subscriber() {
+            public void serviceEvents(List<ServiceEvent> events) {
+                for(ServiceEvent event : events) {
+                    if(event.getType()==ServiceEvent.Type.AVAILABLE)
+                        listener.serviceIsNowAvailable(event.getService());
+                    else
+                        listener.serviceNotAvailable(event.getService());
+                }
+            }
+        }, 1024, Overflow.DROP_OLDEST, 1);
+    }
+
+    /**
+     * Subscribe to events, starting the subscription's dispatch thread.
+     *
+     * @param name The name of the subscription, used to name its dispatch thread
+     * @param subscriber The subscriber
+     * @param capacity The most events queued for the subscriber
+     * @param overflow What to do when the queue is full
+     * @param batchSize The most events delivered in one call to the subscriber
+     *
+     * @return The {@code Subscription}
+     */
+    public Subscription subscribe(String name, Subscriber subscriber, int capacity, Overflow overflow, int batchSize) {
+        if(capacity<=0)
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        if(batchSize<=0)
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        Subscription subscription = new Subscription(name, subscriber, capacity, overflow, batchSize);
+        subscriptions.add(subscription);
+        subscription.dispatcher.start();
+        return subscription;
+    }
+
+    /**
+     * Stop every subscription after the events already queued have been delivered.
+     */
+    public void close() {
+        for(Subscription subscription : subscriptions)
+            subscription.close();
+    }
+
+    /**
+     * A subscriber's queue and dispatch thread.
+     */
+    public final class Subscription {
+        private final String name;
+        private final Subscriber subscriber;
+        private final int capacity;
+        private final Overflow overflow;
+        private final int batchSize;
+        private final Queue<ServiceEvent> events = new ConcurrentLinkedQueue<ServiceEvent>();
+        private final AtomicInteger size = new AtomicInteger();
+        /* With COALESCE the queue holds service names, the latest event of each is kept here */
+        private final Queue<String> names = new ConcurrentLinkedQueue<String>();
+        private final ConcurrentMap<String, ServiceEvent> latest = new ConcurrentHashMap<String, ServiceEvent>();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final Thread dispatcher;
+        private volatile boolean parked;
+        private volatile boolean running = true;
+
+        private Subscription(String name, Subscriber subscriber, int capacity, Overflow overflow, int batchSize) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.batchSize = batchSize;
+            dispatcher = new ProbeScheduler.NamedThreadFactory("scout-events-" + name).newThread(new Dispatcher());
+        }
+
+        private void offer(ServiceEvent event) {
+            if(!running)
+                return;
+            if(overflow==Overflow.COALESCE) {
+                ServiceEvent replaced = latest.put(event.getService().getName(), event);
+                if(replaced==null)
+                    names.add(event.getService().getName());
+                else
+                    dropped.increment();
+            } else {
+                events.add(event);
+                if(size.incrementAndGet()>capacity && events.poll()!=null) {
+                    size.decrementAndGet();
+                    dropped.increment();
+                }
+            }
+            if(parked)
+                LockSupport.unpark(dispatcher);
+        }
+
+        private ServiceEvent poll() {
+            if(overflow==Overflow.COALESCE) {
+                String name;
+                while((name = names.poll())!=null) {
+                    ServiceEvent event = latest.remove(name);
+                    if(event!=null)
+                        return event;
+                }
+                return null;
+            }
+            ServiceEvent event = events.poll();
+            if(event!=null)
+                size.decrementAndGet();
+            return event;
+        }
+
+        private boolean isEmpty() {
+            return overflow==Overflow.COALESCE?names.isEmpty():events.isEmpty();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The number of events that were dropped or coalesced because the subscriber fell behind
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * @return The number of events delivered to the subscriber
+         */
+        public long getDeliveredCount() {
+            return delivered.sum();
+        }
+
+        /**
+         * Stop the subscription after the events already queued have been delivered.
+         */
+        public void close() {
+            running = false;
+            subscriptions.remove(this);
+            LockSupport.unpark(dispatcher);
+            try {
+                dispatcher.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private class Dispatcher implements Runnable {
+            public void run() {
+                List<ServiceEvent> batch = new ArrayList<ServiceEvent>(Math.min(batchSize, 256));
+                while(running || !isEmpty()) {
+                    ServiceEvent event;
+                    while(batch.size()<batchSize && (event = poll())!=null)
+                        batch.add(event);
+                    if(batch.isEmpty()) {
+                        parked = true;
+                        /* Check again, an event offered before parked was set did not unpark this thread */
+                        if(running && isEmpty())
+                            LockSupport.park(this);
+                        parked = false;
+                        continue;
+                    }
+                    try {
+                        subscriber.serviceEvents(batch);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    delivered.add(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
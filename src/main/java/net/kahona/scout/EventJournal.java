@@ -0,0 +1,295 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable, append-only journal of {@link ServiceEvent}s. The journal is a directory of fixed-size, memory-mapped
+ * segment files. When a segment is full a new one is started, and the oldest segments are deleted once more than
+ * the retained number of segments exist.
+ *
+ * <p>Each segment starts with a header holding the position after the last complete record. Each record ends with
+ * its own length, so the most recent events are read by walking backwards from the end of the newest segment,
+ * without reading the rest of the journal.</p>
+ *
+ * <p>Events are appended by a dedicated writer thread, {@link #append(ServiceEvent)} never blocks. If the writer
+ * falls behind by more than the queue capacity, events are dropped and counted.</p>
+ *
+ * @author Dennis Reedy
+ */
+public class EventJournal {
+    private static final int MAGIC = 0x53434a31;
+    private static final int HEADER_SIZE = 16;
+    private static final int POSITION_OFFSET = 8;
+    private static final String SUFFIX = ".journal";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File directory;
+    private final int segmentSize;
+    private final int retainedSegments;
+    private final BlockingQueue<ServiceEvent> queue = new ArrayBlockingQueue<ServiceEvent>(8192);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private MappedByteBuffer segment;
+    private long segmentSequence;
+    private volatile boolean running = true;
+
+    /**
+     * Open a journal, creating the directory if needed.
+     *
+     * @param directory The directory segment files are kept in
+     * @param segmentSize The size of each segment file, in bytes
+     * @param retainedSegments The number of segment files to keep
+     *
+     * @throws IOException if the directory or newest segment cannot be opened
+     */
+    public EventJournal(File directory, int segmentSize, int retainedSegments) throws IOException {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getPath());
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retainedSegments = Math.max(1, retainedSegments);
+        File[] segments = listSegments();
+        if(segments.length>0) {
+            File newest = segments[segments.length - 1];
+            segmentSequence = sequenceOf(newest);
+            /* A segment left truncated by a crash while it was created, or written with another segment size, is
+               kept for reading and a new one is started */
+            if(newest.length()==segmentSize) {
+                segment = map(newest, FileChannel.MapMode.READ_WRITE, segmentSize);
+                if(!isValid(segment))
+                    roll();
+            } else {
+                roll();
+            }
+        } else {
+            roll();
+        }
+        writer = new ProbeScheduler.NamedThreadFactory("scout-journal").newThread(new Writer());
+        writer.start();
+    }
+
+    /**
+     * Open the journal in {@code ~/.kahona/journal}. The segment size and number of retained segments are set with
+     * the {@code scout.journal.segmentSize} and {@code scout.journal.segments} system properties.
+     *
+     * @return An {@code EventJournal}
+     *
+     * @throws IOException if the journal cannot be opened
+     */
+    public static EventJournal open() throws IOException {
+        return new EventJournal(new File(Configuration.getKahonaHome(), "journal"),
+                                Integer.getInteger("scout.journal.segmentSize", 4 * 1024 * 1024),
+                                Integer.getInteger("scout.journal.segments", 8));
+    }
+
+    /**
+     * Queue an event to be appended to the journal. This method does not block.
+     *
+     * @param event The event to append
+     */
+    public void append(ServiceEvent event) {
+        if(!queue.offer(event))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * @return The number of events that were not journaled because the writer had fallen behind
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Read the most recent events, newest segments first, stopping as soon as enough events have been read.
+     *
+     * @param count The maximum number of events to read
+     *
+     * @return The events, oldest first
+     *
+     * @throws IOException if a segment cannot be read
+     */
+    public List<ServiceEvent> readLast(int count) throws IOException {
+        LinkedList<ServiceEvent> events = new LinkedList<ServiceEvent>();
+        File[] segments = listSegments();
+        for(int i=segments.length-1; i>=0 && events.size()<count; i--) {
+            ByteBuffer buffer = map(segments[i], FileChannel.MapMode.READ_ONLY, segments[i].length());
+            if(!isValid(buffer))
+                continue;
+            int position = (int) buffer.getLong(POSITION_OFFSET);
+            while(position>HEADER_SIZE && events.size()<count) {
+                int length = buffer.getInt(position - 4);
+                position -= length;
+                events.addFirst(decode(buffer, position));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Stop the writer thread after it has appended the events already queued, and flush the journal to disk.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(ServiceEvent event) throws IOException {
+        byte[] name = bytes(event.getService().getName());
+        byte[] address = bytes(event.getService().getAddress());
+        /* length + type + time + name + address + trailing length */
+        int length = 4 + 1 + 8 + 2 + name.length + 2 + address.length + 4;
+        if(HEADER_SIZE + length>segmentSize)
+            throw new IOException("Event of " + length + " bytes does not fit in a journal segment");
+        int position = (int) segment.getLong(POSITION_OFFSET);
+        if(position + length>segment.capacity()) {
+            roll();
+            position = HEADER_SIZE;
+        }
+        segment.position(position);
+        segment.putInt(length);
+        segment.put((byte) event.getType().ordinal());
+        segment.putLong(event.getTime());
+        segment.putShort((short) name.length);
+        segment.put(name);
+        segment.putShort((short) address.length);
+        segment.put(address);
+        segment.putInt(length);
+        /* Publish the record only once it is complete */
+        segment.putLong(POSITION_OFFSET, position + length);
+    }
+
+    private ServiceEvent decode(ByteBuffer buffer, int position) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + 4);
+        ServiceEvent.Type type = ServiceEvent.Type.values()[record.get()];
+        long time = record.getLong();
+        String name = string(record);
+        String address = string(record);
+        return new ServiceEvent(new Service(name, address, null, null), type, time);
+    }
+
+    private void roll() throws IOException {
+        if(segment!=null)
+            segment.force();
+        segmentSequence++;
+        File file = new File(directory, String.format("events-%016d%s", segmentSequence, SUFFIX));
+        segment = map(file, FileChannel.MapMode.READ_WRITE, segmentSize);
+        segment.putInt(0, MAGIC);
+        segment.putLong(POSITION_OFFSET, HEADER_SIZE);
+        File[] segments = listSegments();
+        for(int i=0; i<segments.length-retainedSegments; i++) {
+            if(!segments[i].delete())
+                System.err.println("Unable to delete journal segment " + segments[i].getPath());
+        }
+    }
+
+    /* Whether a segment has a header, and the position it holds is within the segment */
+    private static boolean isValid(ByteBuffer segment) {
+        if(segment.capacity()<HEADER_SIZE || segment.getInt(0)!=MAGIC)
+            return false;
+        long position = segment.getLong(POSITION_OFFSET);
+        return position>=HEADER_SIZE && position<=segment.capacity();
+    }
+
+    private File[] listSegments() {
+        File[] segments = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().startsWith("events-") && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if(segments==null)
+            return new File[0];
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring("events-".length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode==FileChannel.MapMode.READ_ONLY?"r":"rw");
+        try {
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] bytes = (s==null?"":s).getBytes(UTF8);
+        return bytes.length>Short.MAX_VALUE?Arrays.copyOf(bytes, Short.MAX_VALUE):bytes;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private class Writer implements Runnable {
+        public void run() {
+            List<ServiceEvent> batch = new ArrayList<ServiceEvent>();
+            while(running || !queue.isEmpty()) {
+                try {
+                    ServiceEvent event = queue.poll(250, TimeUnit.MILLISECONDS);
+                    if(event==null)
+                        continue;
+                    batch.add(event);
+                    queue.drainTo(batch);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                for(ServiceEvent event : batch) {
+                    try {
+                        write(event);
+                    } catch (IOException e) {
+                        dropped.incrementAndGet();
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        /* For example a record larger than a segment, drop the event and keep writing */
+                        dropped.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                }
+                batch.clear();
+            }
+            segment.force();
+        }
+    }
+}
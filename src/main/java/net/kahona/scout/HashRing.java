@@ -0,0 +1,78 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring that assigns services to cluster nodes. Each node is placed on the ring at a number of
+ * virtual points, and a service is owned by the node at the first point at or after the service's hash. When a
+ * node joins or leaves only the services between its points and their predecessors move, about 1/N of them.
+ *
+ * @author Dennis Reedy
+ */
+final class HashRing {
+    static final int VIRTUAL_NODES = 128;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+    /**
+     * Create a ring of nodes.
+     *
+     * @param nodes The ids of the nodes
+     */
+    HashRing(Collection<String> nodes) {
+        for(String node : nodes) {
+            for(int i=0; i<VIRTUAL_NODES; i++)
+                ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    /**
+     * Get the node that owns a key.
+     *
+     * @param key The key, a service name
+     *
+     * @return The id of the node, or {@code null} if the ring is empty
+     */
+    String owner(String key) {
+        if(ring.isEmpty())
+            return null;
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry==null?ring.firstEntry().getValue():entry.getValue();
+    }
+
+    /*
+     * FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that similar names, such as numbered
+     * hosts, spread evenly. It does not depend on String.hashCode, so every JVM builds the same ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b : key.getBytes(UTF8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
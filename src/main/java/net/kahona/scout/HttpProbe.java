@@ -0,0 +1,309 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the health endpoint of an HTTP or HTTPS service with a {@code GET} of the service's path. The endpoint is
+ * healthy if it responds with a 2xx or 3xx status, redirects are not followed.
+ *
+ * <p>The probe connects to the address it is given, already resolved by the {@link ResolverCache}, and sends the
+ * service's host in the {@code Host} header, and for HTTPS as the SNI name the certificate is checked against. The
+ * whole probe, connect, handshake and response, must complete within the timeout.</p>
+ *
+ * <p>Connections are kept alive between probes: the response body is read to the end and the connection is kept
+ * for the next probe of the endpoint, unless the body is larger than 64 KB, the server asked to close it, or it has
+ * been idle for more than a minute. A connection the server has closed in the meantime is replaced by a new one.
+ * A new HTTPS connection resumes the cached TLS session of the host where the server allows it, so a probe does
+ * not pay for a full handshake unless the connection was closed and the session expired.</p>
+ *
+ * @author Dennis Reedy
+ */
+final class HttpProbe implements Probe {
+    /* Bodies larger than this are not worth reading to keep the connection, the connection is closed instead */
+    private static final int MAX_DRAIN = 64 * 1024;
+    private static final int MAX_LINE = 8192;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private final String scheme;
+    /* An endpoint has at most one probe in flight, so it needs at most one idle connection */
+    private final ConcurrentMap<String, Connection> idle = new ConcurrentHashMap<String, Connection>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    HttpProbe(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public String getType() {
+        return scheme;
+    }
+
+    public void probe(ProbeSpec spec, InetSocketAddress address, int timeoutMillis, ConnectProber.Callback callback) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        String key = address + "/" + spec.getHost() + spec.getPath();
+        Connection connection = idle.remove(key);
+        int status = -1;
+        try {
+            if(connection!=null && started - connection.lastUsed>IDLE_NANOS) {
+                connection.close();
+                connection = null;
+            }
+            if(connection!=null) {
+                try {
+                    status = connection.get(spec, deadline);
+                } catch (IOException e) {
+                    /* The server may have closed the idle connection, try once more on a new one */
+                    connection.close();
+                    connection = null;
+                }
+            }
+            if(connection==null) {
+                connection = Connection.open(scheme, spec, address, deadline);
+                status = connection.get(spec, deadline);
+            }
+        } catch (IOException e) {
+            if(connection!=null)
+                connection.close();
+            callback.failed(e, System.nanoTime() - started);
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        if(connection.reusable) {
+            connection.lastUsed = System.nanoTime();
+            Connection previous = idle.put(key, connection);
+            if(previous!=null)
+                previous.close();
+        } else {
+            connection.close();
+        }
+        sweep();
+        if(status>=200 && status<400)
+            callback.connected(elapsed);
+        else
+            callback.failed(new IOException(scheme + "://" + spec.getHost() + ":" + spec.getPort() + spec.getPath() +
+                                            " responded with HTTP " + status), elapsed);
+    }
+
+    /* Close connections of endpoints that are no longer probed */
+    private void sweep() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if(now - last<IDLE_NANOS || !lastSweep.compareAndSet(last, now))
+            return;
+        for(Iterator<Map.Entry<String, Connection>> it = idle.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Connection> entry = it.next();
+            if(now - entry.getValue().lastUsed>IDLE_NANOS && idle.remove(entry.getKey(), entry.getValue()))
+                entry.getValue().close();
+        }
+    }
+
+    /**
+     * A connection to an endpoint, reads block no longer than the deadline of the current request. An HTTPS
+     * connection reads through its {@link DeadlineSocket} too.
+     */
+    private static final class Connection {
+        final DeadlineSocket raw;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean reusable;
+        volatile long lastUsed;
+
+        private Connection(DeadlineSocket raw, Socket socket) throws IOException {
+            this.raw = raw;
+            this.socket = socket;
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        static Connection open(String scheme, ProbeSpec spec, InetSocketAddress address, long deadline)
+            throws IOException {
+            DeadlineSocket raw = new DeadlineSocket(deadline);
+            try {
+                raw.connect(address);
+                return new Connection(raw, "https".equals(scheme)?TlsProbe.handshake(raw, spec):raw);
+            } catch (IOException e) {
+                raw.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Send a {@code GET} of the spec's path and read the response.
+         *
+         * @return The status of the response
+         */
+        int get(ProbeSpec spec, long deadline) throws IOException {
+            raw.setDeadline(deadline);
+            reusable = false;
+            String host = spec.getHost().indexOf(':')>=0?"[" + spec.getHost() + "]":spec.getHost();
+            int defaultPort = socket instanceof SSLSocket?443:80;
+            if(spec.getPort()!=defaultPort)
+                host += ":" + spec.getPort();
+            String request = "GET " + spec.getPath() + " HTTP/1.1\r\n" +
+                             "Host: " + host + "\r\n" +
+                             "User-Agent: Scout\r\n" +
+                             "Accept: */*\r\n\r\n";
+            /* A reused connection may be given a deadline that has already passed, fail before sending */
+            DeadlineSocket.remainingMillis(deadline);
+            out.write(request.getBytes(ASCII));
+            out.flush();
+            String statusLine;
+            int status;
+            do {
+                statusLine = readLine();
+                if(statusLine==null)
+                    throw new EOFException("Connection closed before a response was received");
+                status = parseStatus(statusLine);
+                /* Interim responses are followed by the final one, skip their headers */
+                if(status<200)
+                    readHeaders();
+            } while(status<200);
+            Map<String, String> headers = readHeaders();
+            String connection = headers.get("connection");
+            boolean keepAlive = statusLine.startsWith("HTTP/1.1")?
+                                !"close".equalsIgnoreCase(connection):"keep-alive".equalsIgnoreCase(connection);
+            boolean drained;
+            String contentLength = headers.get("content-length");
+            if(status==204 || status==304) {
+                drained = true;
+            } else if("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                drained = drainChunked();
+            } else if(contentLength!=null) {
+                long length;
+                try {
+                    length = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length " + contentLength);
+                }
+                drained = length<=MAX_DRAIN && drain(length);
+            } else {
+                /* The body ends when the server closes the connection */
+                drain(MAX_DRAIN);
+                drained = false;
+            }
+            reusable = keepAlive && drained;
+            return status;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /* Discarding the connection, nothing to do */
+            }
+        }
+
+        private static int parseStatus(String statusLine) throws IOException {
+            String[] parts = statusLine.split(" ", 3);
+            if(parts.length<2 || !parts[0].startsWith("HTTP/"))
+                throw new IOException("Invalid HTTP response [" + statusLine + "]");
+            try {
+                return Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid HTTP response [" + statusLine + "]");
+            }
+        }
+
+        private Map<String, String> readHeaders() throws IOException {
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while((line = readLine())!=null && line.length()>0) {
+                int separator = line.indexOf(':');
+                if(separator>0)
+                    headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT),
+                                line.substring(separator + 1).trim());
+            }
+            if(line==null)
+                throw new EOFException("Connection closed in the response headers");
+            return headers;
+        }
+
+        /**
+         * Read a body of a known length.
+         *
+         * @return {@code false} if the connection closed first
+         */
+        private boolean drain(long length) throws IOException {
+            byte[] buffer = new byte[4096];
+            while(length>0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if(read==-1)
+                    return false;
+                length -= read;
+            }
+            return true;
+        }
+
+        /**
+         * Read a chunked body and its trailers.
+         *
+         * @return {@code false} if the body was too large to read
+         */
+        private boolean drainChunked() throws IOException {
+            long total = 0;
+            while(true) {
+                String line = readLine();
+                if(line==null)
+                    return false;
+                int extension = line.indexOf(';');
+                long size;
+                try {
+                    size = Long.parseLong((extension<0?line:line.substring(0, extension)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size [" + line + "]");
+                }
+                if(size==0)
+                    break;
+                total += size;
+                if(total>MAX_DRAIN || !drain(size) || readLine()==null)
+                    return false;
+            }
+            readHeaders();
+            return true;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while((c = in.read())!=-1 && c!='\n') {
+                if(line.length()==MAX_LINE)
+                    throw new IOException("HTTP response line longer than " + MAX_LINE + " characters");
+                line.append((char) c);
+            }
+            if(c==-1 && line.length()==0)
+                return null;
+            int length = line.length();
+            if(length>0 && line.charAt(length - 1)=='\r')
+                line.setLength(length - 1);
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of connect latencies. Values are recorded in microseconds into 200 buckets
+ * with a relative precision of 1/8 up to about two minutes, larger values are counted in the last bucket. Recording
+ * does not allocate or lock.
+ *
+ * <p>The histogram covers a sliding window: values are recorded into one of two halves, and the older half is
+ * cleared every {@code window}. A {@link LatencySnapshot} therefore reflects between one and two windows of
+ * probes, so a service that is slowing down shows up in the percentiles quickly.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+    private static final int MAX_EXPONENT = 26;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray[] counts = {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+    private final AtomicLong[] max = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong rotateAt;
+    private final long windowNanos;
+    private volatile int current;
+
+    /**
+     * Create a {@code LatencyHistogram}.
+     *
+     * @param window The length of a window
+     * @param unit The time unit of the window
+     */
+    public LatencyHistogram(long window, TimeUnit unit) {
+        windowNanos = unit.toNanos(window);
+        rotateAt = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        rotate();
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        int half = current;
+        counts[half].incrementAndGet(index(micros));
+        AtomicLong halfMax = max[half];
+        long previous;
+        while(micros>(previous = halfMax.get()) && !halfMax.compareAndSet(previous, micros)) {
+            /* Retry until the max is updated or a larger value has been recorded */
+        }
+    }
+
+    /**
+     * Get the percentiles of the latencies recorded in the current window.
+     *
+     * @return A {@code LatencySnapshot}, never {@code null}
+     */
+    public LatencySnapshot getSnapshot() {
+        rotate();
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for(AtomicLongArray half : counts) {
+            for(int i=0; i<BUCKETS; i++) {
+                long count = half.get(i);
+                merged[i] += count;
+                total += count;
+            }
+        }
+        long maxValue = Math.max(max[0].get(), max[1].get());
+        return new LatencySnapshot(total,
+                                   valueAt(merged, total, 0.50, maxValue),
+                                   valueAt(merged, total, 0.95, maxValue),
+                                   valueAt(merged, total, 0.99, maxValue),
+                                   maxValue);
+    }
+
+    private void rotate() {
+        long now = System.nanoTime();
+        long at = rotateAt.get();
+        if(now-at>=0 && rotateAt.compareAndSet(at, now + windowNanos)) {
+            int next = 1 - current;
+            AtomicLongArray older = counts[next];
+            for(int i=0; i<BUCKETS; i++)
+                older.set(i, 0);
+            max[next].set(0);
+            current = next;
+        }
+    }
+
+    private static long valueAt(long[] buckets, long total, double percentile, long maxValue) {
+        if(total==0)
+            return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += buckets[i];
+            if(seen>=rank)
+                return Math.min(highestEquivalentValue(i), maxValue);
+        }
+        return maxValue;
+    }
+
+    static int index(long micros) {
+        if(micros<LINEAR_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if(index<LINEAR_BUCKETS)
+            return index;
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + subBucket * width + width - 1;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes service notifications to a {@link Logger}, optionally journaling them. As an {@link EventBus.Subscriber}
+ * it journals each event with the time it was published.
+ *
+ * @author Dennis Reedy
+ */
+public class LoggingNotificationListener implements NotificationListener, EventBus.Subscriber {
+    private final Logger logger;
+    private final EventJournal journal;
+
+    /**
+     * Create a {@code LoggingNotificationListener}.
+     *
+     * @param logger The logger to write to
+     * @param journal The journal to append events to, may be {@code null}
+     */
+    public LoggingNotificationListener(Logger logger, EventJournal journal) {
+        this.logger = logger;
+        this.journal = journal;
+    }
+
+    public void serviceIsNowAvailable(Service service) {
+        record(new ServiceEvent(service, ServiceEvent.Type.AVAILABLE, System.currentTimeMillis()));
+    }
+
+    public void serviceNotAvailable(Service service) {
+        record(new ServiceEvent(service, ServiceEvent.Type.NOT_AVAILABLE, System.currentTimeMillis()));
+    }
+
+    public void serviceEvents(List<ServiceEvent> events) {
+        for(ServiceEvent event : events)
+            record(event);
+    }
+
+    private void record(ServiceEvent event) {
+        if(journal!=null)
+            journal.append(event);
+        Service service = event.getService();
+        if(event.getType()==ServiceEvent.Type.AVAILABLE)
+            logger.info("The [" + service.getName() + "] service at " + service.getAddress() + " is now available");
+        else
+            logger.log(Level.WARNING,
+                       "The [" + service.getName() + "] service at " + service.getAddress() + " is not reachable");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cumulative histogram of durations with fixed bucket bounds, for export as a Prometheus histogram. Unlike a
+ * {@link LatencyHistogram} it never resets, counts only increase. Recording does not allocate or lock.
+ *
+ * @author Dennis Reedy
+ */
+public final class MetricHistogram {
+    /**
+     * The upper bounds of the buckets, in seconds.
+     */
+    static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+    static {
+        for(int i=0; i<BOUNDS.length; i++)
+            BOUNDS_NANOS[i] = (long) (BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        int bucket = 0;
+        while(bucket<BOUNDS_NANOS.length && nanos>BOUNDS_NANOS[bucket])
+            bucket++;
+        counts.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Get the number of durations recorded in each bucket, the last bucket holds durations greater than the
+     * largest bound. The counts are not cumulative.
+     *
+     * @return The counts, one more than the number of {@link #BOUNDS}
+     */
+    public long[] getCounts() {
+        long[] copy = new long[counts.length()];
+        for(int i=0; i<copy.length; i++)
+            copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /**
+     * @return The sum of all recorded durations, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves probe and scheduler metrics in the Prometheus text format on {@code /metrics}, using the JDK's built-in
+ * HTTP server. A scrape reads the lock-free counters and the published availability snapshot of each monitor, it
+ * never waits for a probe.
+ *
+ * <p>The server is started by Scout if the {@code scout.metrics.port} system property is set. It binds to the
+ * loopback interface unless {@code scout.metrics.address} is set.</p>
+ *
+ * @author Dennis Reedy
+ */
+public class MetricsServer {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MonitorRegistry monitors;
+    private final ProbeScheduler scheduler;
+    private volatile Cluster cluster;
+    private volatile EventBus events;
+    private volatile EventJournal journal;
+
+    /**
+     * Create and start a {@code MetricsServer}.
+     *
+     * @param address The address to listen on
+     * @param monitors The monitors to report
+     * @param scheduler The scheduler to report the lag of
+     *
+     * @throws IOException if the server cannot bind to the address
+     */
+    public MetricsServer(InetSocketAddress address, MonitorRegistry monitors, ProbeScheduler scheduler)
+        throws IOException {
+        this.monitors = monitors;
+        this.scheduler = scheduler;
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                scrape(exchange);
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ProbeScheduler.NamedThreadFactory("scout-metrics"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Start a {@code MetricsServer} if the {@code scout.metrics.port} system property is set.
+     *
+     * @param monitors The monitors to report
+     *
+     * @return The started server, or {@code null} if metrics are not enabled
+     *
+     * @throws IOException if the server cannot bind to the configured address
+     */
+    public static MetricsServer startIfEnabled(MonitorRegistry monitors) throws IOException {
+        Integer port = Integer.getInteger("scout.metrics.port");
+        if(port==null)
+            return null;
+        InetSocketAddress address = new InetSocketAddress(System.getProperty("scout.metrics.address", "127.0.0.1"),
+                                                          port);
+        return new MetricsServer(address, monitors, ProbeScheduler.getDefault());
+    }
+
+    /**
+     * Also report the merged view of a cluster.
+     *
+     * @param cluster The cluster this node is a member of
+     */
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Also report how many events the subscriptions of an event bus delivered and dropped.
+     *
+     * @param events The event bus notifications are published to
+     */
+    public void setEvents(EventBus events) {
+        this.events = events;
+    }
+
+    /**
+     * Also report how many events a journal dropped.
+     *
+     * @param journal The journal notifications are appended to, may be {@code null}
+     */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return The address the server is listening on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if(!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String render() {
+        ServiceMonitor[] running = monitors.getMonitors().toArray(new ServiceMonitor[0]);
+        StringBuilder out = new StringBuilder(256 + running.length * 1024);
+
+        out.append("# HELP scout_monitors Number of services being monitored.\n");
+        out.append("# TYPE scout_monitors gauge\n");
+        out.append("scout_monitors ").append(running.length).append('\n');
+
+        out.append("# HELP scout_endpoints Number of distinct host:port endpoints being probed.\n");
+        out.append("# TYPE scout_endpoints gauge\n");
+        out.append("scout_endpoints ").append(Endpoint.count()).append('\n');
+
+        out.append("# HELP scout_probes_waiting Number of due probes waiting for admission.\n");
+        out.append("# TYPE scout_probes_waiting gauge\n");
+        out.append("scout_probes_waiting ").append(ProbeAdmission.getDefault().getWaitingCount()).append('\n');
+
+        out.append("# HELP scout_service_up Whether the last probe of the service succeeded.\n");
+        out.append("# TYPE scout_service_up gauge\n");
+        for(ServiceMonitor monitor : running) {
+            int state = monitor.getMetrics().getState();
+            if(state!=ServiceMetrics.UNKNOWN)
+                sample(out, "scout_service_up", labels(monitor), state);
+        }
+
+        out.append("# HELP scout_probes_total Number of completed probes.\n");
+        out.append("# TYPE scout_probes_total counter\n");
+        for(ServiceMonitor monitor : running)
+            sample(out, "scout_probes_total", labels(monitor), monitor.getMetrics().getProbeCount());
+
+        out.append("# HELP scout_probe_failures_total Number of probes that failed or timed out.\n");
+        out.append("# TYPE scout_probe_failures_total counter\n");
+        for(ServiceMonitor monitor : running)
+            sample(out, "scout_probe_failures_total", labels(monitor), monitor.getMetrics().getFailureCount());
+
+        out.append("# HELP scout_probe_overruns_total Number of probes in flight for longer than the period.\n");
+        out.append("# TYPE scout_probe_overruns_total counter\n");
+        for(ServiceMonitor monitor : running)
+            sample(out, "scout_probe_overruns_total", labels(monitor), monitor.getMetrics().getOverrunCount());
+
+        out.append("# HELP scout_probe_skipped_ticks_total Number of probes skipped because one was in flight.\n");
+        out.append("# TYPE scout_probe_skipped_ticks_total counter\n");
+        for(ServiceMonitor monitor : running)
+            sample(out,
+                   "scout_probe_skipped_ticks_total",
+                   labels(monitor),
+                   monitor.getMetrics().getSkippedTickCount());
+
+        out.append("# HELP scout_service_availability Fraction of the time the service was up, over a window.\n");
+        out.append("# TYPE scout_service_availability gauge\n");
+        for(ServiceMonitor monitor : running) {
+            AvailabilityStats stats = monitor.getAvailabilityStats();
+            for(AvailabilityStats.Window window : AvailabilityStats.Window.values()) {
+                double availability = stats.getAvailability(window);
+                if(!Double.isNaN(availability))
+                    out.append("scout_service_availability{").append(labels(monitor)).append(",window=\"")
+                       .append(window(window)).append("\"} ").append(format(availability)).append('\n');
+            }
+        }
+
+        out.append("# HELP scout_service_outages Number of outages that started in a window.\n");
+        out.append("# TYPE scout_service_outages gauge\n");
+        for(ServiceMonitor monitor : running) {
+            for(AvailabilityStats.Window window : AvailabilityStats.Window.values())
+                sample(out,
+                       "scout_service_outages",
+                       labels(monitor) + ",window=\"" + window(window) + "\"",
+                       monitor.getAvailabilityStats().getOutageCount(window));
+        }
+
+        out.append("# HELP scout_service_mttr_seconds Mean time to recovery of the outages that ended in a window.\n");
+        out.append("# TYPE scout_service_mttr_seconds gauge\n");
+        for(ServiceMonitor monitor : running) {
+            for(AvailabilityStats.Window window : AvailabilityStats.Window.values()) {
+                long mttr = monitor.getAvailabilityStats().getMttrMillis(window);
+                if(mttr>0)
+                    out.append("scout_service_mttr_seconds{").append(labels(monitor)).append(",window=\"")
+                       .append(window(window)).append("\"} ").append(format(mttr / 1000.0)).append('\n');
+            }
+        }
+
+        out.append("# HELP scout_connect_latency_seconds Connect latency of successful probes.\n");
+        out.append("# TYPE scout_connect_latency_seconds histogram\n");
+        for(ServiceMonitor monitor : running)
+            histogram(out,
+                      "scout_connect_latency_seconds",
+                      labels(monitor),
+                      monitor.getMetrics().getConnectLatency());
+
+        out.append("# HELP scout_scheduler_lag_seconds Time from when a probe was due to when it started.\n");
+        out.append("# TYPE scout_scheduler_lag_seconds histogram\n");
+        histogram(out, "scout_scheduler_lag_seconds", "", scheduler.getLag());
+
+        out.append("# HELP scout_scheduler_skipped_total Number of runs skipped while the last was in progress " +
+                   "or the timer was behind.\n");
+        out.append("# TYPE scout_scheduler_skipped_total counter\n");
+        sample(out, "scout_scheduler_skipped_total", "", scheduler.getSkippedCount());
+
+        EventBus bus = events;
+        if(bus!=null) {
+            List<EventBus.Subscription> subscriptions = bus.getSubscriptions();
+            out.append("# HELP scout_events_delivered_total Number of events delivered to a subscriber.\n");
+            out.append("# TYPE scout_events_delivered_total counter\n");
+            for(EventBus.Subscription subscription : subscriptions)
+                sample(out,
+                       "scout_events_delivered_total",
+                       "subscription=\"" + escape(subscription.getName()) + "\"",
+                       subscription.getDeliveredCount());
+
+            out.append("# HELP scout_events_dropped_total Number of events dropped, or coalesced, because a ");
+            out.append("subscriber fell behind.\n");
+            out.append("# TYPE scout_events_dropped_total counter\n");
+            for(EventBus.Subscription subscription : subscriptions)
+                sample(out,
+                       "scout_events_dropped_total",
+                       "subscription=\"" + escape(subscription.getName()) + "\"",
+                       subscription.getDroppedCount());
+        }
+
+        EventJournal currentJournal = journal;
+        if(currentJournal!=null) {
+            out.append("# HELP scout_journal_dropped_total Number of events not journaled because the writer fell ");
+            out.append("behind.\n");
+            out.append("# TYPE scout_journal_dropped_total counter\n");
+            sample(out, "scout_journal_dropped_total", "", currentJournal.getDroppedCount());
+        }
+
+        Cluster current = cluster;
+        if(current!=null) {
+            out.append("# HELP scout_cluster_members Number of live cluster nodes, including this one.\n");
+            out.append("# TYPE scout_cluster_members gauge\n");
+            out.append("scout_cluster_members ").append(current.getMembers().size()).append('\n');
+
+            out.append("# HELP scout_cluster_service_up Whether the last probe of the service succeeded, ");
+            out.append("by the node that owns it.\n");
+            out.append("# TYPE scout_cluster_service_up gauge\n");
+            for(Map.Entry<String, Integer> entry : current.getView().entrySet()) {
+                if(entry.getValue()!=ServiceMetrics.UNKNOWN)
+                    sample(out,
+                           "scout_cluster_service_up",
+                           "service=\"" + escape(entry.getKey()) + "\",node=\"" +
+                           escape(current.getOwner(entry.getKey())) + "\"",
+                           entry.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static String labels(ServiceMonitor monitor) {
+        Service service = monitor.getService();
+        return "service=\"" + escape(service.getName()) + "\",address=\"" + escape(service.getAddress()) + "\"";
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, MetricHistogram histogram) {
+        long[] counts = histogram.getCounts();
+        String separator = labels.length()==0?"":",";
+        long cumulative = 0;
+        for(int i=0; i<counts.length; i++) {
+            cumulative += counts[i];
+            String le = i<MetricHistogram.BOUNDS.length?format(MetricHistogram.BOUNDS[i]):"+Inf";
+            sample(out, name + "_bucket", labels + separator + "le=\"" + le + "\"", cumulative);
+        }
+        out.append(name).append("_sum");
+        if(labels.length()>0)
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(format((double) histogram.getSumNanos() / TimeUnit.SECONDS.toNanos(1))).append('\n');
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if(labels.length()>0)
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        String formatted = String.format(Locale.ROOT, "%.9f", value);
+        formatted = formatted.replaceAll("0+$", "");
+        return formatted.endsWith(".")?formatted.substring(0, formatted.length() - 1):formatted;
+    }
+
+    private static String window(AvailabilityStats.Window window) {
+        switch(window) {
+            case HOUR:
+                return "1h";
+            case DAY:
+                return "24h";
+            case WEEK:
+                return "7d";
+            default:
+                return "30d";
+        }
+    }
+
+    private static String escape(String value) {
+        if(value==null)
+            return "";
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
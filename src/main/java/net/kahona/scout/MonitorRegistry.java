@@ -0,0 +1,133 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The running {@link ServiceMonitor}s, indexed by service name.
+ *
+ * @author Dennis Reedy
+ */
+public class MonitorRegistry {
+    private final Map<String, ServiceMonitor> monitors = new LinkedHashMap<String, ServiceMonitor>();
+    private final NotificationListener notificationListener;
+    private final List<ProbeListener> probeListeners = new ArrayList<ProbeListener>();
+
+    /**
+     * Create a {@code MonitorRegistry}.
+     *
+     * @param notificationListener The listener every monitor notifies
+     */
+    public MonitorRegistry(NotificationListener notificationListener) {
+        this.notificationListener = notificationListener;
+    }
+
+    /**
+     * Start monitoring a service, replacing the monitor of a service with the same name.
+     *
+     * @param service The service to monitor
+     *
+     * @return The new monitor
+     */
+    public synchronized ServiceMonitor start(Service service) {
+        ServiceMonitor monitor = new ServiceMonitor(service, notificationListener);
+        for(ProbeListener listener : probeListeners)
+            monitor.addProbeListener(listener);
+        ServiceMonitor previous = monitors.put(service.getName(), monitor);
+        if(previous!=null)
+            previous.terminate();
+        return monitor;
+    }
+
+    /**
+     * Stop monitoring a service.
+     *
+     * @param name The name of the service
+     */
+    public synchronized void stop(String name) {
+        ServiceMonitor monitor = monitors.remove(name);
+        if(monitor!=null)
+            monitor.terminate();
+    }
+
+    /**
+     * Apply a new definition of a service. A running monitor is rescheduled and keeps its state, otherwise a new
+     * monitor is started.
+     *
+     * @param service The service
+     */
+    public synchronized void update(Service service) {
+        ServiceMonitor monitor = monitors.get(service.getName());
+        if(monitor==null)
+            start(service);
+        else
+            monitor.reschedule(service);
+    }
+
+    /**
+     * Apply a configuration change. Monitors of services that did not change are not touched.
+     *
+     * @param diff The change
+     */
+    public synchronized void apply(ConfigurationDiff diff) {
+        for(Service service : diff.getRemoved())
+            stop(service.getName());
+        for(Service service : diff.getChanged())
+            update(service);
+        for(Service service : diff.getAdded())
+            start(service);
+    }
+
+    /**
+     * Add a listener to every running monitor, and to the monitors started after.
+     *
+     * @param listener The listener
+     */
+    public synchronized void addProbeListener(ProbeListener listener) {
+        probeListeners.add(listener);
+        for(ServiceMonitor monitor : monitors.values())
+            monitor.addProbeListener(listener);
+    }
+
+    public synchronized ServiceMonitor get(String name) {
+        return monitors.get(name);
+    }
+
+    /**
+     * @return A copy of the running monitors
+     */
+    public synchronized Collection<ServiceMonitor> getMonitors() {
+        return new ArrayList<ServiceMonitor>(monitors.values());
+    }
+
+    public synchronized int size() {
+        return monitors.size();
+    }
+
+    /**
+     * Stop all monitors.
+     */
+    public synchronized void terminate() {
+        for(ServiceMonitor monitor : monitors.values())
+            monitor.terminate();
+        monitors.clear();
+    }
+}
@@ -16,92 +16,122 @@
 package net.kahona.scout;
 
 import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Collections;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A table that shows all notifications that Scout has received. If scout exits, the history is lost.
+ * A table that shows the notifications that Scout has received. Notifications are kept in the
+ * {@link EventJournal}, the most recent ones are reloaded when Scout starts. The table holds at most
+ * {@code scout.notifications.max} notifications (default 10000) in memory, and only those can be filtered and
+ * sorted. Older notifications remain in the journal but are not shown.
+ *
+ * <p>The notifications can be filtered by service name, by time and to only failures. Clicking the Service column
+ * header sorts by service, clicking the Time column header sorts by time, toggling between oldest and newest
+ * first.</p>
  *
  * @author Dennis Reedy
  */
 public class NotificationTable extends JPanel {
+    private static final String[] RANGES = new String[]{"All", "Last hour", "Last 24 hours", "Last 7 days"};
+    private static final long[] RANGE_MILLIS = new long[]{0, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1),
+                                                          TimeUnit.DAYS.toMillis(7)};
     private NotificationTableModel tableModel;
     JTable table;
+    private final JTextField serviceField = new JTextField(12);
+    private final JCheckBox failuresOnly = new JCheckBox("Only failures");
+    private final JComboBox<String> range = new JComboBox<String>(RANGES);
+    private final JLabel count = new JLabel();
+    private final Timer filterTimer;
 
     public NotificationTable() {
         super(new BorderLayout(8,8));
-        tableModel = new NotificationTableModel();
+        tableModel = new NotificationTableModel(Integer.getInteger("scout.notifications.max", 10000));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.getColumnModel().getColumn(0).setPreferredWidth(80);
         table.getColumnModel().getColumn(1).setPreferredWidth(135);
         table.getColumnModel().getColumn(2).setPreferredWidth(255);
         table.getColumnModel().getColumn(3).setPreferredWidth(155);
-        add(new JScrollPane(table), BorderLayout.CENTER);
-    }
-
-    public void addFailedService(Service s, String dateStamp) {
-        tableModel.add(s, dateStamp, "The service is not reachable");
-        tableModel.fireTableDataChanged();
-    }
-
-    public void addServiceNowAvailable(Service s, String dateStamp) {
-        tableModel.add(s, dateStamp, "The service is now available");
-        tableModel.fireTableDataChanged();
-    }
-
-    class NotificationTableModel extends AbstractTableModel {
-        final List<ServiceDateTuple> items = Collections.synchronizedList(new ArrayList<ServiceDateTuple>());
-        final String[] columnNames = new String[]{"Service", "Address", "Event", "Time"};
-
-        void add(Service service, String dateStamp, String event) {
-            items.add(new ServiceDateTuple(service, dateStamp, event));
-        }
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent event) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(event.getPoint()));
+                if(column==0)
+                    tableModel.setSort(NotificationTableModel.Sort.SERVICE);
+                else if(column==3)
+                    tableModel.setSort(tableModel.getSort()==NotificationTableModel.Sort.TIME_ASCENDING?
+                                       NotificationTableModel.Sort.TIME_DESCENDING:
+                                       NotificationTableModel.Sort.TIME_ASCENDING);
+            }
+        });
+        /* Typing in the service field filters once the user pauses, not on every key */
+        filterTimer = new Timer(150, new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                applyFilter();
+            }
+        });
+        filterTimer.setRepeats(false);
+        serviceField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent event) {
+                filterTimer.restart();
+            }
 
-        public int getRowCount() {
-            return items.size();
-        }
+            public void removeUpdate(DocumentEvent event) {
+                filterTimer.restart();
+            }
 
-        public String getColumnName(int col) {
-            return columnNames[col];
-        }
+            public void changedUpdate(DocumentEvent event) {
+                filterTimer.restart();
+            }
+        });
+        ActionListener filter = new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                applyFilter();
+            }
+        };
+        failuresOnly.addActionListener(filter);
+        range.addActionListener(filter);
+        tableModel.addTableModelListener(new TableModelListener() {
+            public void tableChanged(TableModelEvent event) {
+                count.setText(tableModel.getRowCount() + " of " + tableModel.getEventCount() + " events");
+            }
+        });
 
-        public int getColumnCount() {
-            return columnNames.length;
-        }
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Service"));
+        filterPanel.add(serviceField);
+        filterPanel.add(failuresOnly);
+        filterPanel.add(range);
+        filterPanel.add(count);
+        add(filterPanel, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+    }
 
-        public Object getValueAt(int row, int column) {
-            ServiceDateTuple s = items.get(row);
-            String value = null;
-            switch (column) {
-                case 0:
-                    value = s.service.getName();
-                    break;
-                case 1:
-                    value = s.service.getAddress();
-                    break;
-                case 2:
-                    value = s.event;
-                    break;
-                case 3:
-                    value = s.dateStamp;
-            }
-            return value;
-        }
+    /**
+     * Add an event to the table. May be called from any thread.
+     *
+     * @param event The event to add
+     */
+    public void add(ServiceEvent event) {
+        tableModel.add(event);
     }
 
-    private class ServiceDateTuple {
-        Service service;
-        String dateStamp;
-        String event;
+    public NotificationTableModel getTableModel() {
+        return tableModel;
+    }
 
-        private ServiceDateTuple(Service service, String dateStamp, String event) {
-            this.service = service;
-            this.dateStamp = dateStamp;
-            this.event = event;
-        }
+    private void applyFilter() {
+        long millis = RANGE_MILLIS[range.getSelectedIndex()];
+        tableModel.setFilter(serviceField.getText(),
+                             failuresOnly.isSelected(),
+                             millis==0?Long.MIN_VALUE:System.currentTimeMillis() - millis,
+                             Long.MAX_VALUE);
     }
 }
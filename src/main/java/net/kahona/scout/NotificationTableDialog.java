@@ -45,7 +45,7 @@ public class NotificationTableDialog extends JDialog {
     public void setVisible(boolean visible) {
         if (visible) {
             int width = 630;
-            int height = 200;
+            int height = 320;
             pack();
             setSize(width, height);
             Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
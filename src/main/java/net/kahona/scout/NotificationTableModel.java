@@ -0,0 +1,390 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Table model for {@link ServiceEvent}s, holding at most a fixed number of the most recent events in a ring buffer.
+ * Timestamps are kept as epoch milliseconds and only formatted when a cell is rendered.
+ *
+ * <p>Events may be added from any thread. They are queued and applied on the event dispatch thread in batches,
+ * each batch firing one rows-deleted event for the events that were evicted and one rows-inserted event for the
+ * events that were added.</p>
+ *
+ * <p>The rows can be filtered by service name, by time range and to only failures, and sorted by time or by
+ * service. Each event has a sequence number, and the events of each service and the failures are indexed by
+ * lists of sequence numbers. Events are added in time order, so a time range is a range of sequence numbers
+ * found by binary search, and filtering only visits the events of the matching services. A filtered view is an
+ * array of sequence numbers, the table only reads the rows it shows. Filtering and sorting happen on the event
+ * dispatch thread.</p>
+ *
+ * @author Dennis Reedy
+ */
+public class NotificationTableModel extends AbstractTableModel {
+    static final String NOT_AVAILABLE = "The service is not reachable";
+    static final String AVAILABLE = "The service is now available";
+
+    /**
+     * The order of the rows.
+     */
+    public enum Sort {TIME_ASCENDING, TIME_DESCENDING, SERVICE}
+
+    private final String[] columnNames = new String[]{"Service", "Address", "Event", "Time"};
+    private final DateFormat dateFormat = new SimpleDateFormat("MM/dd/yy hh:mm:ss aa");
+    private final int capacity;
+    private final Service[] services;
+    private final boolean[] failed;
+    private final long[] times;
+    private final Queue<ServiceEvent> pending = new ConcurrentLinkedQueue<ServiceEvent>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+    /* Accessed only on the event dispatch thread */
+    private long firstSeq;
+    private long nextSeq;
+    private final Map<String, SeqList> byService = new TreeMap<String, SeqList>();
+    private final SeqList failures = new SeqList();
+    /* Events of a service share one Service, so a large table does not hold a copy per event */
+    private final Map<String, Service> canonical = new HashMap<String, Service>();
+    private String serviceFilter = "";
+    private boolean failuresOnly;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private Sort sort = Sort.TIME_ASCENDING;
+    /* The sequence numbers of the rows, null when the rows are a range of sequence numbers */
+    private long[] view;
+    private long rangeFrom = Long.MIN_VALUE;
+    private long rangeTo = Long.MAX_VALUE;
+    private long viewMin;
+
+    /**
+     * Create a {@code NotificationTableModel}.
+     *
+     * @param capacity The maximum number of events to hold, the oldest events are removed once it is reached
+     */
+    public NotificationTableModel(int capacity) {
+        if(capacity<=0)
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        this.capacity = capacity;
+        services = new Service[capacity];
+        failed = new boolean[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Add an event. May be called from any thread.
+     *
+     * @param event The event to add
+     */
+    public void add(ServiceEvent event) {
+        /* Events that would be evicted by the same batch are dropped before they reach the table. The queue is
+           held while dropping, so a batch being taken by flush() cannot leave an older event in the batch and the
+           newer one dropped */
+        synchronized(pending) {
+            pending.add(event);
+            if(pendingCount.incrementAndGet()>capacity && pending.poll()!=null)
+                pendingCount.decrementAndGet();
+        }
+        if(flushScheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(flush);
+    }
+
+    /**
+     * Filter the rows. Called on the event dispatch thread.
+     *
+     * @param service Only show services whose name contains this, ignoring case, all services if empty or
+     * {@code null}
+     * @param failuresOnly Only show events of services that are not reachable
+     * @param from Only show events at or after this time, in milliseconds since the epoch
+     * @param to Only show events before this time, in milliseconds since the epoch
+     */
+    public void setFilter(String service, boolean failuresOnly, long from, long to) {
+        this.serviceFilter = service==null?"":service.trim().toLowerCase(Locale.ROOT);
+        this.failuresOnly = failuresOnly;
+        this.from = from;
+        this.to = to;
+        refilter();
+    }
+
+    /**
+     * Sort the rows. Called on the event dispatch thread.
+     *
+     * @param sort The order of the rows
+     */
+    public void setSort(Sort sort) {
+        this.sort = sort;
+        refilter();
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return The maximum number of events held
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of events held, shown or not
+     */
+    public int getEventCount() {
+        return (int) (nextSeq - firstSeq);
+    }
+
+    private boolean isFiltered() {
+        return serviceFilter.length()>0 || failuresOnly || from!=Long.MIN_VALUE || to!=Long.MAX_VALUE;
+    }
+
+    private void refilter() {
+        long lo = seqAt(from);
+        long hi = seqAt(to);
+        if(serviceFilter.length()==0 && !failuresOnly && sort!=Sort.SERVICE) {
+            /* Events are in time order, the rows are a range of sequence numbers */
+            view = null;
+            rangeFrom = isFiltered()?lo:Long.MIN_VALUE;
+            rangeTo = isFiltered()?hi:Long.MAX_VALUE;
+        } else {
+            List<SeqList> lists = new ArrayList<SeqList>();
+            if(serviceFilter.length()==0 && failuresOnly && sort!=Sort.SERVICE) {
+                /* The failures are in time order, sorted by service they are taken from each service's list */
+                lists.add(failures);
+            } else {
+                for(Map.Entry<String, SeqList> entry : byService.entrySet()) {
+                    if(entry.getKey().toLowerCase(Locale.ROOT).contains(serviceFilter))
+                        lists.add(entry.getValue());
+                }
+            }
+            /* Each list is in time order, services are in name order. The lists of several services are merged
+             * into time order by marking their sequence numbers */
+            BitSet merged = sort!=Sort.SERVICE && lists.size()>1?new BitSet((int) (hi - lo)):null;
+            int length = 0;
+            for(SeqList list : lists)
+                length += list.countBetween(lo, hi);
+            long[] rows = new long[length];
+            int count = 0;
+            for(SeqList list : lists) {
+                for(int i=list.indexOf(lo), end=list.indexOf(hi); i<end; i++) {
+                    long seq = list.values[i];
+                    if(failuresOnly && !failed[index(seq)])
+                        continue;
+                    if(merged==null)
+                        rows[count++] = seq;
+                    else
+                        merged.set((int) (seq - lo));
+                }
+            }
+            if(merged!=null) {
+                for(int i=merged.nextSetBit(0); i>=0; i=merged.nextSetBit(i + 1))
+                    rows[count++] = lo + i;
+            }
+            view = count==length?rows:Arrays.copyOf(rows, count);
+            viewMin = Long.MAX_VALUE;
+            for(SeqList list : lists) {
+                int i = list.indexOf(lo);
+                if(i<list.end && list.values[i]<hi)
+                    viewMin = Math.min(viewMin, list.values[i]);
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    /* The sequence number of the first event at or after a time */
+    private long seqAt(long time) {
+        long lo = firstSeq;
+        long hi = nextSeq;
+        while(lo<hi) {
+            long mid = (lo + hi) >>> 1;
+            if(times[index(mid)]<time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private boolean matches(long seq) {
+        int index = index(seq);
+        return (!failuresOnly || failed[index]) && times[index]>=from && times[index]<to &&
+               (serviceFilter.length()==0 ||
+                services[index].getName().toLowerCase(Locale.ROOT).contains(serviceFilter));
+    }
+
+    private int index(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<ServiceEvent> batch = new ArrayList<ServiceEvent>();
+        synchronized(pending) {
+            ServiceEvent event;
+            while(batch.size()<capacity && (event = pending.poll())!=null) {
+                pendingCount.decrementAndGet();
+                batch.add(event);
+            }
+        }
+        int evicted = (int) Math.max(0, nextSeq - firstSeq + batch.size() - capacity);
+        boolean showAll = view==null && sort==Sort.TIME_ASCENDING && !isFiltered();
+        boolean changed = false;
+        for(int i=0; i<evicted; i++) {
+            long seq = firstSeq++;
+            int index = index(seq);
+            String name = services[index].getName();
+            SeqList list = byService.get(name);
+            list.removeFirst();
+            if(list.isEmpty()) {
+                byService.remove(name);
+                canonical.remove(name);
+            }
+            if(failed[index])
+                failures.removeFirst();
+            services[index] = null;
+        }
+        if(showAll) {
+            if(evicted>0)
+                fireTableRowsDeleted(0, evicted - 1);
+        } else if(evicted>0) {
+            changed = view==null?rangeFrom<firstSeq:viewMin<firstSeq;
+        }
+        long first = nextSeq;
+        for(ServiceEvent added : batch) {
+            long seq = nextSeq++;
+            int index = index(seq);
+            services[index] = canonical(added.getService());
+            failed[index] = added.getType()==ServiceEvent.Type.NOT_AVAILABLE;
+            times[index] = added.getTime();
+            SeqList list = byService.get(services[index].getName());
+            if(list==null) {
+                list = new SeqList();
+                byService.put(services[index].getName(), list);
+            }
+            list.add(seq);
+            if(failed[index])
+                failures.add(seq);
+            changed |= !showAll && matches(seq);
+        }
+        if(showAll) {
+            if(nextSeq>first)
+                fireTableRowsInserted((int) (first - firstSeq), (int) (nextSeq - firstSeq) - 1);
+        } else if(changed) {
+            refilter();
+        }
+    }
+
+    private Service canonical(Service service) {
+        Service existing = canonical.get(service.getName());
+        if(existing!=null && existing.getAddress()!=null && existing.getAddress().equals(service.getAddress()))
+            return existing;
+        canonical.put(service.getName(), service);
+        return service;
+    }
+
+    public int getRowCount() {
+        return view==null?(int) (Math.min(rangeTo, nextSeq) - Math.max(rangeFrom, firstSeq)):view.length;
+    }
+
+    public String getColumnName(int col) {
+        return columnNames[col];
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public Object getValueAt(int row, int column) {
+        if(sort==Sort.TIME_DESCENDING)
+            row = getRowCount() - 1 - row;
+        int index = index(view==null?Math.max(rangeFrom, firstSeq) + row:view[row]);
+        String value = null;
+        switch (column) {
+            case 0:
+                value = services[index].getName();
+                break;
+            case 1:
+                value = services[index].getAddress();
+                break;
+            case 2:
+                value = failed[index]?NOT_AVAILABLE:AVAILABLE;
+                break;
+            case 3:
+                value = dateFormat.format(new Date(times[index]));
+        }
+        return value;
+    }
+
+    /**
+     * An ascending list of sequence numbers. Removed numbers are skipped from the front, the array is compacted
+     * when it fills.
+     */
+    private static class SeqList {
+        long[] values = new long[8];
+        int start;
+        int end;
+
+        void add(long seq) {
+            if(end==values.length) {
+                int size = end - start;
+                long[] target = size * 2<values.length?values:new long[values.length * 2];
+                System.arraycopy(values, start, target, 0, size);
+                values = target;
+                start = 0;
+                end = size;
+            }
+            values[end++] = seq;
+        }
+
+        void removeFirst() {
+            start++;
+        }
+
+        boolean isEmpty() {
+            return start==end;
+        }
+
+        /* The position of the first number at or after seq */
+        int indexOf(long seq) {
+            int lo = start;
+            int hi = end;
+            while(lo<hi) {
+                int mid = (lo + hi) >>> 1;
+                if(values[mid]<seq)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        int countBetween(long lo, long hi) {
+            return indexOf(hi) - indexOf(lo);
+        }
+    }
+}
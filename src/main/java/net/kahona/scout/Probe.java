@@ -0,0 +1,48 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Checks the health of an endpoint. A service selects a probe by the type set in its {@code probe} attribute,
+ * {@code tcp} if not set. The built-in probes are {@code tcp}, {@code http}, {@code https} and {@code tls}. Other
+ * probes are registered with the {@link ProbeRegistry}, or found with {@link java.util.ServiceLoader} by listing
+ * them in {@code META-INF/services/net.kahona.scout.Probe}.
+ *
+ * <p>A probe is started on a virtual thread if the probe mode is {@link ServiceMonitor.ProbeMode#VIRTUAL}, otherwise
+ * on one of the {@code scout.probe.blockingWorkers} threads kept for probes other than TCP. It may block until the
+ * timeout, or complete on another thread. It must report its result to the callback exactly once,
+ * {@link ConnectProber.Callback#connected(long)} if the endpoint is healthy.</p>
+ *
+ * @author Dennis Reedy
+ */
+public interface Probe {
+    /**
+     * @return The type services select the probe with, in lower case
+     */
+    String getType();
+
+    /**
+     * Probe an endpoint.
+     *
+     * @param spec The spec of the service the endpoint was created for, with the host, port and path to probe
+     * @param address The resolved address of the endpoint
+     * @param timeoutMillis The most time the probe should take, in milliseconds
+     * @param callback Notified with the result of the probe
+     */
+    void probe(ProbeSpec spec, InetSocketAddress address, int timeoutMillis, ConnectProber.Callback callback);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a due probe may start. A probe is admitted if a token is available from a process-wide
+ * probes-per-second bucket and the probe's host has fewer probes in flight than the per-host limit. Otherwise it
+ * waits, and waiting probes are admitted in {@link Priority} order, oldest first, as tokens are refilled and probes
+ * of their host complete.
+ *
+ * <p>The rate and per-host limit are set with the {@code scout.probe.rate} and {@code scout.probe.perHost} system
+ * properties. A rate of 0, the default, does not limit the rate.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class ProbeAdmission {
+    /**
+     * The order in which waiting probes are admitted.
+     */
+    public enum Priority {CRITICAL, HIGH, NORMAL, LOW}
+    private static final ProbeAdmission DEFAULT =
+        new ProbeAdmission(Double.parseDouble(System.getProperty("scout.probe.rate", "0")),
+                           Integer.getInteger("scout.probe.perHost", 8),
+                           ProbeScheduler.getDefault());
+    private final double tokensPerNano;
+    private final double capacity;
+    private final int perHostLimit;
+    private final Executor executor;
+    private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+    private final TreeSet<Request> waiting = new TreeSet<Request>();
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private long sequence;
+
+    /**
+     * Create a {@code ProbeAdmission}.
+     *
+     * @param rate The most probes to admit per second, 0 for no limit. Up to one second's worth of tokens are
+     * kept, so an idle process can admit a burst of {@code rate} probes.
+     * @param perHostLimit The most probes of one host to have in flight
+     * @param scheduler Runs waiting probes once admitted, and refills the bucket
+     */
+    public ProbeAdmission(double rate, int perHostLimit, ProbeScheduler scheduler) {
+        if(rate<0)
+            throw new IllegalArgumentException("rate must not be negative");
+        if(perHostLimit<=0)
+            throw new IllegalArgumentException("perHostLimit must be greater than 0");
+        this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, rate);
+        this.tokens = capacity;
+        this.perHostLimit = perHostLimit;
+        this.executor = scheduler;
+        if(rate>0) {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, 10, 10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the admission shared by all {@link ServiceMonitor}s in this process.
+     *
+     * @return The default {@code ProbeAdmission}
+     */
+    public static ProbeAdmission getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Start a probe as soon as it is admitted. If it is admitted now it runs on the calling thread, otherwise it
+     * runs later on one of the scheduler's worker threads. Once the probe completes, {@link #release(String)}
+     * must be called with the same host.
+     *
+     * @param host The host the probe connects to
+     * @param priority The priority of the probe
+     * @param probe The probe
+     */
+    public void submit(String host, Priority priority, Runnable probe) {
+        synchronized(this) {
+            if(!waiting.isEmpty() || !tryAdmit(host)) {
+                /* Queue behind probes that are already waiting, the probe may still be admitted ahead of them if
+                 * they are waiting for their hosts */
+                waiting.add(new Request(host, priority, sequence++, probe));
+                drain();
+                return;
+            }
+        }
+        probe.run();
+    }
+
+    /**
+     * A probe of the host has completed, admit waiting probes.
+     *
+     * @param host The host the probe connected to
+     */
+    public void release(String host) {
+        synchronized(this) {
+            Integer count = inFlight.get(host);
+            if(count==null || count<=1)
+                inFlight.remove(host);
+            else
+                inFlight.put(host, count - 1);
+        }
+        drain();
+    }
+
+    /**
+     * @return The number of probes waiting to be admitted
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private synchronized void drain() {
+        Iterator<Request> requests = waiting.iterator();
+        while(requests.hasNext() && (tokensPerNano==0 || refill()>=1)) {
+            Request request = requests.next();
+            if(tryAdmit(request.host)) {
+                requests.remove();
+                executor.execute(request.probe);
+            }
+        }
+    }
+
+    private boolean tryAdmit(String host) {
+        Integer count = inFlight.get(host);
+        if(count!=null && count>=perHostLimit)
+            return false;
+        if(tokensPerNano>0) {
+            if(refill()<1)
+                return false;
+            tokens--;
+        }
+        inFlight.put(host, count==null?1:count + 1);
+        return true;
+    }
+
+    private double refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        return tokens;
+    }
+
+    private static class Request implements Comparable<Request> {
+        final String host;
+        final Priority priority;
+        final long sequence;
+        final Runnable probe;
+
+        Request(String host, Priority priority, long sequence, Runnable probe) {
+            this.host = host;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.probe = probe;
+        }
+
+        public int compareTo(Request other) {
+            if(priority!=other.priority)
+                return priority.compareTo(other.priority);
+            return sequence<other.sequence?-1:(sequence>other.sequence?1:0);
+        }
+    }
+}
@@ -0,0 +1,814 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local store of the result of every probe. Register it with {@link MonitorRegistry#addProbeListener} and it
+ * records each probe's time, outcome and latency, and rolls them up into per-minute and per-hour aggregates.
+ *
+ * <p>Each service's raw samples are compressed in an hourly {@link SampleBlock}. Rollups are kept in memory until
+ * their hour, for minutes, or day, for hours, is over. Completed blocks are appended to files in the history
+ * directory: {@code raw-yyyyMMdd.dat}, {@code minute-yyyyMMdd.dat} and {@code hour-yyyyMM.dat}, in UTC. Files
+ * older than their retention are deleted.</p>
+ *
+ * <p>Every record in a file starts with the service name and the time range it covers. A query finds the records
+ * of a service through an index of each file's records, built as the file grows, and only decodes the records
+ * that overlap the range. Results that have not been written yet are served from memory.</p>
+ *
+ * <p>Samples are recorded by a dedicated writer thread, {@link #probeCompleted} never blocks. If the writer
+ * falls behind by more than the queue capacity, samples are dropped and counted.</p>
+ *
+ * @author Dennis Reedy
+ */
+public class ProbeHistory implements ProbeListener {
+    /**
+     * The intervals of rollups.
+     */
+    public enum Resolution {
+        MINUTE(TimeUnit.MINUTES.toMillis(1), TimeUnit.HOURS.toMillis(1)),
+        HOUR(TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1));
+        final long millis;
+        /* Rollups are written once the block interval they fall in is over */
+        final long blockMillis;
+
+        Resolution(long millis, long blockMillis) {
+            this.millis = millis;
+            this.blockMillis = blockMillis;
+        }
+    }
+
+    static final int MAX_BLOCK_SAMPLES = 4096;
+    private static final long RAW_BLOCK_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String SUFFIX = ".dat";
+    private final File directory;
+    private final int rawRetentionDays;
+    private final int minuteRetentionDays;
+    private final int hourRetentionDays;
+    private final BlockingQueue<Sample> queue = new ArrayBlockingQueue<Sample>(65536);
+    private final AtomicLong dropped = new AtomicLong();
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+    private final Map<String, FileIndex> indexes = new HashMap<String, FileIndex>();
+    /* Accessed only by the writer thread */
+    private final Map<String, DataOutputStream> files = new HashMap<String, DataOutputStream>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * A probe result.
+     */
+    public static final class Sample {
+        private final String service;
+        private final long time;
+        private final boolean available;
+        private final long latencyMicros;
+
+        Sample(String service, long time, boolean available, long latencyMicros) {
+            this.service = service;
+            this.time = time;
+            this.available = available;
+            this.latencyMicros = latencyMicros;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        /**
+         * @return When the probe completed, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /**
+         * @return The time the probe took, in microseconds
+         */
+        public long getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        public String toString() {
+            return "Sample [ service: " + service + ", time: " + time + ", available: " + available +
+                   ", latencyMicros: " + latencyMicros + "]";
+        }
+    }
+
+    /**
+     * The aggregate of the probes of a service in one minute or hour.
+     */
+    public static final class Rollup {
+        private final long start;
+        private long count;
+        private long failures;
+        private long latencySumMicros;
+        private long minLatencyMicros = Long.MAX_VALUE;
+        private long maxLatencyMicros;
+
+        Rollup(long start) {
+            this.start = start;
+        }
+
+        Rollup(long start, long count, long failures, long latencySumMicros, long minLatencyMicros,
+               long maxLatencyMicros) {
+            this.start = start;
+            this.count = count;
+            this.failures = failures;
+            this.latencySumMicros = latencySumMicros;
+            this.minLatencyMicros = minLatencyMicros;
+            this.maxLatencyMicros = maxLatencyMicros;
+        }
+
+        void add(boolean available, long latencyMicros) {
+            count++;
+            if(available) {
+                latencySumMicros += latencyMicros;
+                minLatencyMicros = Math.min(minLatencyMicros, latencyMicros);
+                maxLatencyMicros = Math.max(maxLatencyMicros, latencyMicros);
+            } else {
+                failures++;
+            }
+        }
+
+        void merge(Rollup other) {
+            long succeeded = count - failures;
+            count += other.count;
+            failures += other.failures;
+            latencySumMicros += other.latencySumMicros;
+            /* A rollup where every probe failed is stored with a minimum of 0, it has no minimum to merge */
+            if(other.count>other.failures)
+                minLatencyMicros = succeeded==0?other.minLatencyMicros:Math.min(minLatencyMicros,
+                                                                                 other.minLatencyMicros);
+            maxLatencyMicros = Math.max(maxLatencyMicros, other.maxLatencyMicros);
+        }
+
+        Rollup copy() {
+            return new Rollup(start, count, failures, latencySumMicros, minLatencyMicros, maxLatencyMicros);
+        }
+
+        /**
+         * @return The start of the interval, in milliseconds since the epoch
+         */
+        public long getStart() {
+            return start;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The fraction of probes that succeeded
+         */
+        public double getAvailability() {
+            return count==0?0:(double) (count - failures) / count;
+        }
+
+        /**
+         * @return The mean latency of the probes that succeeded, in microseconds, 0 if none did
+         */
+        public long getMeanLatencyMicros() {
+            long succeeded = count - failures;
+            return succeeded==0?0:latencySumMicros / succeeded;
+        }
+
+        /**
+         * @return The lowest latency of the probes that succeeded, in microseconds, 0 if none did
+         */
+        public long getMinLatencyMicros() {
+            return count==failures?0:minLatencyMicros;
+        }
+
+        /**
+         * @return The highest latency of the probes that succeeded, in microseconds
+         */
+        public long getMaxLatencyMicros() {
+            return maxLatencyMicros;
+        }
+
+        public String toString() {
+            return "Rollup [ start: " + start + ", count: " + count + ", failures: " + failures +
+                   ", meanLatencyMicros: " + getMeanLatencyMicros() + "]";
+        }
+    }
+
+    /**
+     * Open a history, creating the directory if needed.
+     *
+     * @param directory The directory files are kept in
+     * @param rawRetentionDays The number of days raw samples are kept
+     * @param minuteRetentionDays The number of days minute rollups are kept
+     * @param hourRetentionDays The number of days hour rollups are kept
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public ProbeHistory(File directory, int rawRetentionDays, int minuteRetentionDays, int hourRetentionDays)
+        throws IOException {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getPath());
+        this.directory = directory;
+        this.rawRetentionDays = rawRetentionDays;
+        this.minuteRetentionDays = minuteRetentionDays;
+        this.hourRetentionDays = hourRetentionDays;
+        writer = new ProbeScheduler.NamedThreadFactory("scout-history").newThread(new Writer());
+        writer.start();
+    }
+
+    /**
+     * Open the history in {@code ~/.kahona/history}. Retention, in days, is set with the
+     * {@code scout.history.raw}, {@code scout.history.minute} and {@code scout.history.hour} system properties.
+     *
+     * @return A {@code ProbeHistory}
+     *
+     * @throws IOException if the history cannot be opened
+     */
+    public static ProbeHistory open() throws IOException {
+        return new ProbeHistory(new File(Configuration.getKahonaHome(), "history"),
+                                Integer.getInteger("scout.history.raw", 7),
+                                Integer.getInteger("scout.history.minute", 14),
+                                Integer.getInteger("scout.history.hour", 400));
+    }
+
+    public void probeCompleted(Service service, boolean available, long connectNanos) {
+        add(new Sample(service.getName(),
+                       System.currentTimeMillis(),
+                       available,
+                       TimeUnit.NANOSECONDS.toMicros(connectNanos)));
+    }
+
+    void add(Sample sample) {
+        if(!running || !queue.offer(sample))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * @return The number of samples that were not recorded because the writer had fallen behind
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the probe results of a service in a time range.
+     *
+     * @param service The name of the service
+     * @param from The start of the range, inclusive, in milliseconds since the epoch
+     * @param to The end of the range, exclusive, in milliseconds since the epoch
+     *
+     * @return The samples, oldest first
+     *
+     * @throws IOException if a file cannot be read
+     */
+    public List<Sample> getSamples(String service, long from, long to) throws IOException {
+        List<Sample> samples = new ArrayList<Sample>();
+        Series s = series.get(service);
+        if(s==null) {
+            readSamples(service, from, to, samples);
+            return samples;
+        }
+        /* Hold the series while reading. The writer flushes a block to its file before it drops it from memory,
+           under the same lock, so a query finds the block in one place or the other */
+        synchronized(s) {
+            readSamples(service, from, to, samples);
+            if(s.block!=null && s.block.getLastTime()>=from && s.block.getFirstTime()<to)
+                SampleBlock.decode(service, s.block.toByteArray(), s.block.getCount(), from, to, samples);
+        }
+        return samples;
+    }
+
+    /**
+     * Get the rollups of a service in a time range.
+     *
+     * @param service The name of the service
+     * @param resolution The interval of the rollups
+     * @param from The start of the range, inclusive, in milliseconds since the epoch
+     * @param to The end of the range, exclusive, in milliseconds since the epoch
+     *
+     * @return The rollups that start in the range, oldest first. Intervals without probes are not included
+     *
+     * @throws IOException if a file cannot be read
+     */
+    public List<Rollup> getRollups(String service, Resolution resolution, long from, long to) throws IOException {
+        List<Rollup> rollups = new ArrayList<Rollup>();
+        Series s = series.get(service);
+        if(s==null) {
+            readRollups(service, resolution, from, to, rollups);
+        } else {
+            synchronized(s) {
+                readRollups(service, resolution, from, to, rollups);
+                Rollups pending = resolution==Resolution.MINUTE?s.minutes:s.hours;
+                for(Rollup rollup : pending.sealed) {
+                    if(rollup.start>=from && rollup.start<to)
+                        rollups.add(rollup.copy());
+                }
+                if(pending.current!=null && pending.current.start>=from && pending.current.start<to)
+                    rollups.add(pending.current.copy());
+            }
+        }
+        /* Samples that arrived after their interval was written are in a later rollup of the same interval */
+        Map<Long, Rollup> merged = new TreeMap<Long, Rollup>();
+        for(Rollup rollup : rollups) {
+            Rollup existing = merged.get(rollup.start);
+            if(existing==null)
+                merged.put(rollup.start, rollup);
+            else
+                existing.merge(rollup);
+        }
+        return new ArrayList<Rollup>(merged.values());
+    }
+
+    /**
+     * Stop the writer thread after it has recorded the samples already queued, and write what is held in memory.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(Sample sample) throws IOException {
+        Series s = series.get(sample.service);
+        if(s==null) {
+            s = new Series();
+            series.put(sample.service, s);
+        }
+        synchronized(s) {
+            long hour = floor(sample.time, RAW_BLOCK_MILLIS);
+            if(s.block!=null && (hour!=s.blockStart || s.block.getCount()>=MAX_BLOCK_SAMPLES))
+                writeBlock(sample.service, s);
+            if(s.block==null) {
+                s.block = new SampleBlock();
+                s.blockStart = hour;
+            }
+            s.block.append(sample.time, sample.available, sample.latencyMicros);
+            s.minutes.add(sample);
+            s.hours.add(sample);
+            writeRollups(sample.service, s.minutes, sample.time);
+            writeRollups(sample.service, s.hours, sample.time);
+        }
+    }
+
+    /*
+     * Write the blocks and rollups whose interval is over, so services that are no longer probed are written too
+     */
+    private void expire(long now) throws IOException {
+        for(Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            synchronized(s) {
+                if(s.block!=null && s.blockStart + RAW_BLOCK_MILLIS<=now)
+                    writeBlock(entry.getKey(), s);
+                s.minutes.seal(now);
+                writeRollups(entry.getKey(), s.minutes, now);
+                s.hours.seal(now);
+                writeRollups(entry.getKey(), s.hours, now);
+                if(s.block==null && s.minutes.isEmpty() && s.hours.isEmpty())
+                    series.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void writeAll() throws IOException {
+        for(Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            synchronized(s) {
+                if(s.block!=null)
+                    writeBlock(entry.getKey(), s);
+                s.minutes.seal(Long.MAX_VALUE);
+                writeRollups(entry.getKey(), s.minutes, Long.MAX_VALUE);
+                s.hours.seal(Long.MAX_VALUE);
+                writeRollups(entry.getKey(), s.hours, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    private void writeBlock(String service, Series s) throws IOException {
+        SampleBlock block = s.block;
+        byte[] payload = block.toByteArray();
+        DataOutputStream out = file("raw-" + day(block.getFirstTime()));
+        writeHeader(out, service, block.getFirstTime(), block.getLastTime(), block.getCount(), payload.length);
+        out.write(payload);
+        /* Flush while the series is held, a query must find the block in the file once it is gone from memory */
+        out.flush();
+        s.block = null;
+    }
+
+    /* Write the sealed rollups of blocks that are over at the given time */
+    private void writeRollups(String service, Rollups rollups, long time) throws IOException {
+        if(rollups.sealed.isEmpty())
+            return;
+        long blockStart = floor(rollups.sealed.get(0).start, rollups.resolution.blockMillis);
+        if(blockStart + rollups.resolution.blockMillis>time)
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        long previous = blockStart;
+        Rollup last = null;
+        for(Rollup rollup : rollups.sealed) {
+            writeVarLong(payload, (rollup.start - previous) / rollups.resolution.millis);
+            writeVarLong(payload, rollup.count);
+            writeVarLong(payload, rollup.failures);
+            writeVarLong(payload, rollup.latencySumMicros);
+            writeVarLong(payload, rollup.getMinLatencyMicros());
+            writeVarLong(payload, rollup.maxLatencyMicros);
+            previous = rollup.start;
+            last = rollup;
+        }
+        String name = rollups.resolution==Resolution.MINUTE?"minute-" + day(blockStart):"hour-" + month(blockStart);
+        DataOutputStream out = file(name);
+        writeHeader(out, service, blockStart, last.start, rollups.sealed.size(), bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+        rollups.sealed.clear();
+    }
+
+    private static void writeHeader(DataOutputStream out, String service, long first, long last, int count,
+                                    int payloadLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeUTF(service);
+        header.writeLong(first);
+        header.writeLong(last);
+        header.writeInt(count);
+        out.writeInt(bytes.size() + payloadLength);
+        bytes.writeTo(out);
+    }
+
+    private DataOutputStream file(String name) throws IOException {
+        DataOutputStream out = files.get(name);
+        if(out==null) {
+            /* Only the current day's and month's files are written to, close the others */
+            if(files.size()>=4)
+                closeFiles();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory,
+                                                                                              name + SUFFIX),
+                                                                                     true)));
+            files.put(name, out);
+        }
+        return out;
+    }
+
+    private void flushFiles() {
+        for(DataOutputStream out : files.values()) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeFiles() {
+        for(DataOutputStream out : files.values()) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        files.clear();
+    }
+
+    private void readSamples(String service, long from, long to, List<Sample> samples) throws IOException {
+        for(File file : filesFor("raw-", from, to)) {
+            for(Record record : read(file, service, from, to))
+                SampleBlock.decode(service, record.payload, record.count, from, to, samples);
+        }
+    }
+
+    private void readRollups(String service, Resolution resolution, long from, long to, List<Rollup> rollups)
+        throws IOException {
+        String prefix = resolution==Resolution.MINUTE?"minute-":"hour-";
+        for(File file : filesFor(prefix, from, to)) {
+            for(Record record : read(file, service, from, to)) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload));
+                long start = record.first;
+                for(int i=0; i<record.count; i++) {
+                    start += readVarLong(in) * resolution.millis;
+                    Rollup rollup = new Rollup(start, readVarLong(in), readVarLong(in), readVarLong(in),
+                                               readVarLong(in), readVarLong(in));
+                    if(start>=from && start<to)
+                        rollups.add(rollup);
+                }
+            }
+        }
+    }
+
+    /* The files with a prefix whose period overlaps the range, oldest first */
+    private List<File> filesFor(final String prefix, long from, long to) {
+        File[] candidates = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().startsWith(prefix) && file.getName().endsWith(SUFFIX);
+            }
+        });
+        List<File> files = new ArrayList<File>();
+        if(candidates==null)
+            return files;
+        Arrays.sort(candidates);
+        for(File file : candidates) {
+            long[] period = periodOf(file.getName());
+            if(period!=null && period[0]<to && period[1]>from)
+                files.add(file);
+        }
+        return files;
+    }
+
+    /* The records of a service in a file that overlap the range */
+    private List<Record> read(File file, String service, long from, long to) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            List<Long> positions;
+            synchronized(indexes) {
+                FileIndex index = indexes.get(file.getName());
+                if(index==null) {
+                    index = new FileIndex();
+                    indexes.put(file.getName(), index);
+                }
+                index.update(raf);
+                positions = index.get(service);
+            }
+            byte[] length = new byte[4];
+            for(long position : positions) {
+                raf.seek(position);
+                raf.readFully(length);
+                byte[] bytes = new byte[new DataInputStream(new ByteArrayInputStream(length)).readInt()];
+                raf.readFully(bytes);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                in.readUTF();
+                long first = in.readLong();
+                long last = in.readLong();
+                int count = in.readInt();
+                if(last<from || first>=to)
+                    continue;
+                byte[] payload = new byte[in.available()];
+                in.readFully(payload);
+                records.add(new Record(first, count, payload));
+            }
+        } finally {
+            raf.close();
+        }
+        return records;
+    }
+
+    private void deleteExpired(long now) {
+        File[] all = directory.listFiles();
+        if(all==null)
+            return;
+        for(File file : all) {
+            String name = file.getName();
+            long[] period = periodOf(name);
+            if(period==null)
+                continue;
+            int retention = name.startsWith("raw-")?rawRetentionDays:
+                            name.startsWith("minute-")?minuteRetentionDays:hourRetentionDays;
+            if(period[1] + TimeUnit.DAYS.toMillis(retention)>now)
+                continue;
+            DataOutputStream out = files.remove(name.substring(0, name.length() - SUFFIX.length()));
+            try {
+                if(out!=null)
+                    out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized(indexes) {
+                indexes.remove(name);
+                if(!file.delete())
+                    System.err.println("Unable to delete history file " + file.getPath());
+            }
+        }
+    }
+
+    /* The start and end of the period a file holds, or null if it is not a history file */
+    private static long[] periodOf(String name) {
+        if(!name.endsWith(SUFFIX))
+            return null;
+        String date = name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length());
+        boolean monthly = name.startsWith("hour-");
+        try {
+            Calendar calendar = utc();
+            calendar.setTime(format(monthly?"yyyyMM":"yyyyMMdd").parse(date));
+            long start = calendar.getTimeInMillis();
+            calendar.add(monthly?Calendar.MONTH:Calendar.DAY_OF_MONTH, 1);
+            return new long[]{start, calendar.getTimeInMillis()};
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static String day(long time) {
+        return format("yyyyMMdd").format(new Date(time));
+    }
+
+    private static String month(long time) {
+        return format("yyyyMM").format(new Date(time));
+    }
+
+    private static SimpleDateFormat format(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setCalendar(utc());
+        format.setLenient(false);
+        return format;
+    }
+
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    /* Minutes, hours and days all start on a multiple of their length in UTC */
+    private static long floor(long time, long millis) {
+        return time - Math.floorMod(time, millis);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while((value & ~0x7FL)!=0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for(int shift=0; shift<64; shift+=7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80)==0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /* Guarded by itself */
+    private static class Series {
+        SampleBlock block;
+        long blockStart;
+        final Rollups minutes = new Rollups(Resolution.MINUTE);
+        final Rollups hours = new Rollups(Resolution.HOUR);
+    }
+
+    private static class Rollups {
+        final Resolution resolution;
+        final List<Rollup> sealed = new ArrayList<Rollup>();
+        Rollup current;
+
+        Rollups(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        void add(Sample sample) {
+            long start = floor(sample.time, resolution.millis);
+            seal(start);
+            /* A sample that arrived after its interval was sealed, but before it was written */
+            if(current==null && !sealed.isEmpty() && sealed.get(sealed.size() - 1).start==start)
+                current = sealed.remove(sealed.size() - 1);
+            if(current==null)
+                current = new Rollup(start);
+            current.add(sample.available, sample.latencyMicros);
+        }
+
+        /* Seal the current rollup if its interval is over */
+        void seal(long time) {
+            if(current!=null && current.start + resolution.millis<=time) {
+                sealed.add(current);
+                current = null;
+            }
+        }
+
+        boolean isEmpty() {
+            return current==null && sealed.isEmpty();
+        }
+    }
+
+    private static class Record {
+        final long first;
+        final int count;
+        final byte[] payload;
+
+        Record(long first, int count, byte[] payload) {
+            this.first = first;
+            this.count = count;
+            this.payload = payload;
+        }
+    }
+
+    /* The positions of the records of each service in a file, extended as the file grows */
+    private static class FileIndex {
+        final Map<String, List<Long>> positions = new HashMap<String, List<Long>>();
+        long indexed;
+
+        void update(RandomAccessFile raf) throws IOException {
+            long length = raf.length();
+            byte[] header = new byte[6];
+            while(indexed + header.length<=length) {
+                raf.seek(indexed);
+                raf.readFully(header);
+                int recordLength = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) |
+                                   ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+                /* A record that is still being written */
+                if(indexed + 4 + recordLength>length)
+                    break;
+                byte[] name = new byte[((header[4] & 0xff) << 8) | (header[5] & 0xff)];
+                raf.readFully(name);
+                String service = new DataInputStream(new ByteArrayInputStream(utf(name))).readUTF();
+                List<Long> list = positions.get(service);
+                if(list==null) {
+                    list = new ArrayList<Long>();
+                    positions.put(service, list);
+                }
+                list.add(indexed);
+                indexed += 4 + recordLength;
+            }
+        }
+
+        /* The encoded name with its length in front, as readUTF expects */
+        private static byte[] utf(byte[] name) {
+            byte[] bytes = new byte[name.length + 2];
+            bytes[0] = (byte) (name.length >>> 8);
+            bytes[1] = (byte) name.length;
+            System.arraycopy(name, 0, bytes, 2, name.length);
+            return bytes;
+        }
+
+        List<Long> get(String service) {
+            List<Long> list = positions.get(service);
+            return list==null?Collections.<Long>emptyList():new ArrayList<Long>(list);
+        }
+    }
+
+    private class Writer implements Runnable {
+        public void run() {
+            List<Sample> batch = new ArrayList<Sample>();
+            long lastExpiry = 0;
+            long lastRetention = 0;
+            while(running || !queue.isEmpty()) {
+                try {
+                    Sample sample = queue.poll(1, TimeUnit.SECONDS);
+                    if(sample!=null) {
+                        batch.add(sample);
+                        queue.drainTo(batch);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    for(Sample sample : batch)
+                        record(sample);
+                    long now = System.currentTimeMillis();
+                    if(now - lastExpiry>=TimeUnit.SECONDS.toMillis(10)) {
+                        lastExpiry = now;
+                        expire(now);
+                    }
+                    if(now - lastRetention>=TimeUnit.HOURS.toMillis(1)) {
+                        lastRetention = now;
+                        deleteExpired(now);
+                    }
+                } catch (IOException e) {
+                    dropped.addAndGet(batch.size());
+                    e.printStackTrace();
+                }
+                batch.clear();
+                flushFiles();
+            }
+            try {
+                writeAll();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            closeFiles();
+        }
+    }
+}
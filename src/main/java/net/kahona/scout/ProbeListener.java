@@ -0,0 +1,32 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+/**
+ * Listener that is notified of the result of every probe, not only of changes in availability.
+ *
+ * @author Dennis Reedy
+ */
+public interface ProbeListener {
+    /**
+     * A probe of a service has completed. Called on a probe thread, implementations must not block.
+     *
+     * @param service The service that was probed
+     * @param available Whether the service could be connected to
+     * @param connectNanos The time taken to connect, or to fail to connect, in nanoseconds
+     */
+    void probeCompleted(Service service, boolean available, long connectNanos);
+}
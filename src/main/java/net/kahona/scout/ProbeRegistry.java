@@ -0,0 +1,73 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Locale;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link Probe}s services can select, by type. The built-in probes are registered first, followed by the
+ * probes found with {@link ServiceLoader}.
+ *
+ * @author Dennis Reedy
+ */
+public final class ProbeRegistry {
+    private static final ProbeRegistry DEFAULT = new ProbeRegistry();
+    private final ConcurrentMap<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+
+    private ProbeRegistry() {
+        register(TcpProbe.forMode(ServiceMonitor.DEFAULT_PROBE_MODE));
+        register(new HttpProbe("http"));
+        register(new HttpProbe("https"));
+        register(new TlsProbe());
+        try {
+            for(Probe probe : ServiceLoader.load(Probe.class))
+                register(probe);
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Unable to load probes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The registry of the probes available in this process
+     */
+    public static ProbeRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Register a probe, replacing a probe of the same type.
+     *
+     * @param probe The probe
+     */
+    public void register(Probe probe) {
+        probes.put(probe.getType().toLowerCase(Locale.ROOT), probe);
+    }
+
+    /**
+     * Get a probe.
+     *
+     * @param type The type of the probe, case is ignored
+     *
+     * @return The probe, or {@code null} if no probe of the type is registered
+     */
+    public Probe get(String type) {
+        return probes.get(type.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A process-wide scheduler for service probes. Probes are kept in a hashed timing wheel that is advanced by a
+ * single timer thread, expired probes are handed to a small, fixed pool of worker threads. The number of threads
+ * does not depend on the number of services being monitored.
+ *
+ * @author Dennis Reedy
+ */
+public final class ProbeScheduler implements Executor {
+    private static final ProbeScheduler DEFAULT =
+        new ProbeScheduler(10, TimeUnit.MILLISECONDS, 1024,
+                           Integer.getInteger("scout.probe.workers",
+                                              Math.max(2, Runtime.getRuntime().availableProcessors())));
+    private final long tickNanos;
+    private final int mask;
+    private final ScheduledProbe[] wheel;
+    private final Queue<ScheduledProbe> registrations = new ConcurrentLinkedQueue<ScheduledProbe>();
+    private final ExecutorService workers;
+    private final Thread timer;
+    private final Clock clock;
+    private final long startTime;
+    private final MetricHistogram lag = new MetricHistogram();
+    private final LongAdder skipped = new LongAdder();
+    private long tick;
+    private volatile boolean running = true;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param tickDuration The duration of one tick of the wheel
+     * @param unit The time unit of the tick duration
+     * @param wheelSize The number of buckets in the wheel, rounded up to a power of two
+     * @param workerCount The number of threads that run expired probes
+     */
+    public ProbeScheduler(long tickDuration, TimeUnit unit, int wheelSize, int workerCount) {
+        this(tickDuration, unit, wheelSize, workerCount, Clock.SYSTEM);
+    }
+
+    ProbeScheduler(long tickDuration, TimeUnit unit, int wheelSize, int workerCount, Clock clock) {
+        if(tickDuration<=0)
+            throw new IllegalArgumentException("tickDuration must be greater than 0");
+        if(workerCount<=0)
+            throw new IllegalArgumentException("workerCount must be greater than 0");
+        this.clock = clock;
+        startTime = clock.nanoTime();
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        wheel = new ScheduledProbe[size];
+        mask = size - 1;
+        workers = Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("scout-probe"));
+        timer = new NamedThreadFactory("scout-timer").newThread(new Ticker());
+        timer.start();
+    }
+
+    /**
+     * Get the scheduler shared by all {@link ServiceMonitor}s in this process.
+     *
+     * @return The default {@code ProbeScheduler}
+     */
+    public static ProbeScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Schedule a task to run periodically at a fixed rate. If a run takes longer than the period, the runs that
+     * were due while it was in progress are skipped, runs of a task never queue up behind each other or run
+     * concurrently. If the timer falls behind, such as during a long garbage collection pause, the task runs once
+     * and the runs that were missed meanwhile are skipped.
+     *
+     * @param task The task to run
+     * @param initialDelay The time to delay the first run
+     * @param period The period between successive runs
+     * @param unit The time unit of the initialDelay and period
+     *
+     * @return A {@code ScheduledProbe} that can be used to cancel the task
+     */
+    public ScheduledProbe schedule(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if(period<=0)
+            throw new IllegalArgumentException("period must be greater than 0");
+        if(!running)
+            throw new RejectedExecutionException("ProbeScheduler has been shutdown");
+        ScheduledProbe probe = new ScheduledProbe(task,
+                                                  clock.nanoTime() - startTime + unit.toNanos(initialDelay),
+                                                  unit.toNanos(period));
+        registrations.add(probe);
+        return probe;
+    }
+
+    /**
+     * Run a task on one of the scheduler's worker threads.
+     *
+     * @param task The task to run
+     */
+    public void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Get how late scheduled runs started, the time from when a run was due to when it started on a worker thread.
+     *
+     * @return The lag histogram
+     */
+    public MetricHistogram getLag() {
+        return lag;
+    }
+
+    /**
+     * @return The number of runs that were skipped, because the previous run of the task was still in progress or
+     * because the timer fell behind by more than a period
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * Stop the timer and worker threads. Probes that are running are interrupted.
+     */
+    public void shutdown() {
+        running = false;
+        timer.interrupt();
+        workers.shutdownNow();
+    }
+
+    /* Buckets before earliestTick have already been expired this rotation, so the rounds count from there */
+    private void place(ScheduledProbe probe, long earliestTick) {
+        long ticks = Math.max(probe.deadline / tickNanos, earliestTick);
+        probe.rounds = (ticks - earliestTick) / wheel.length;
+        int index = (int) (ticks & mask);
+        probe.next = wheel[index];
+        wheel[index] = probe;
+    }
+
+    private void expire() {
+        /* The tick the timer is at, later than the one being expired when the timer fell behind */
+        long current = Math.max(tick, (clock.nanoTime() - startTime) / tickNanos);
+        int index = (int) (tick & mask);
+        ScheduledProbe probe = wheel[index];
+        ScheduledProbe expired = null;
+        wheel[index] = null;
+        while(probe!=null) {
+            ScheduledProbe next = probe.next;
+            if(!probe.cancelled) {
+                if(probe.rounds>0) {
+                    probe.rounds--;
+                    probe.next = wheel[index];
+                    wheel[index] = probe;
+                } else {
+                    probe.next = expired;
+                    expired = probe;
+                }
+            }
+            probe = next;
+        }
+        while(expired!=null) {
+            ScheduledProbe next = expired.next;
+            expired.fire();
+            expired.advance(current * tickNanos);
+            place(expired, tick + 1);
+            expired = next;
+        }
+    }
+
+    /**
+     * A task registered with the {@code ProbeScheduler}.
+     */
+    public final class ScheduledProbe implements Runnable {
+        private final Runnable task;
+        private final long period;
+        private final AtomicBoolean inProgress = new AtomicBoolean();
+        private long deadline;
+        /* When the run that is submitted, or in progress, was due. Written before submit, read by the worker */
+        private volatile long due;
+        private long rounds;
+        private ScheduledProbe next;
+        private volatile boolean cancelled;
+
+        private ScheduledProbe(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Cancel the task. A run that is already in progress is allowed to complete.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return When the run that is in progress was due, in {@link System#nanoTime()} terms, or the current time
+         * if no run is in progress
+         */
+        public long getDueNanos() {
+            return inProgress.get()?startTime + due:clock.nanoTime();
+        }
+
+        /* Move to the next run after the given time, the runs due before it were missed and are skipped rather
+           than run back-to-back to catch up */
+        private void advance(long now) {
+            long missed = now>deadline?(now - deadline - 1) / period:0;
+            if(missed>0)
+                skipped.add(missed);
+            deadline += (missed + 1) * period;
+        }
+
+        /**
+         * Count a run as skipped. For a task that hands its work off and returns, so the scheduler does not see it
+         * in progress, and skips a run itself because the work it started has not completed.
+         */
+        void skip() {
+            skipped.increment();
+        }
+
+        private void fire() {
+            /* Only submit if there is no run in progress, otherwise this run is skipped */
+            if(inProgress.compareAndSet(false, true)) {
+                due = deadline;
+                try {
+                    workers.execute(this);
+                } catch(RejectedExecutionException e) {
+                    inProgress.set(false);
+                }
+            } else {
+                skipped.increment();
+            }
+        }
+
+        public void run() {
+            try {
+                if(!cancelled) {
+                    lag.record(clock.nanoTime() - startTime - due);
+                    task.run();
+                }
+            } finally {
+                inProgress.set(false);
+            }
+        }
+    }
+
+    private class Ticker implements Runnable {
+        public void run() {
+            while(running) {
+                long sleep = tickNanos * (tick + 1) - (clock.nanoTime() - startTime);
+                if(sleep>0) {
+                    LockSupport.parkNanos(sleep);
+                    continue;
+                }
+                ScheduledProbe probe;
+                while((probe = registrations.poll())!=null) {
+                    if(!probe.cancelled)
+                        place(probe, tick);
+                }
+                expire();
+                tick++;
+            }
+        }
+    }
+
+    /* The source of the scheduler's time, replaced by tests to make the timer fall behind */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        long nanoTime();
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable, validated description of how to probe a {@link Service}. A spec is compiled once when a service is
+ * loaded or changed, so probing does not parse any of the service's string attributes.
+ *
+ * @author Dennis Reedy
+ */
+public final class ProbeSpec {
+    static final int DEFAULT_TIMEOUT_MILLIS = 2000;
+    static final int DEFAULT_FAILURE_THRESHOLD = Integer.getInteger("scout.failureThreshold", 3);
+    static final int MAX_FAILURE_THRESHOLD = 10;
+    private final Service service;
+    private final String host;
+    private final int port;
+    private final long periodNanos;
+    private final long minPeriodNanos;
+    private final long maxPeriodNanos;
+    private final int timeoutMillis;
+    private final ProbeAdmission.Priority priority;
+    private final String probeType;
+    private final String path;
+    private final int failureThreshold;
+
+    private ProbeSpec(Service service,
+                      String host,
+                      int port,
+                      long periodNanos,
+                      long minPeriodNanos,
+                      long maxPeriodNanos,
+                      int timeoutMillis,
+                      ProbeAdmission.Priority priority,
+                      String probeType,
+                      String path,
+                      int failureThreshold) {
+        this.service = service;
+        this.host = host;
+        this.port = port;
+        this.periodNanos = periodNanos;
+        this.minPeriodNanos = minPeriodNanos;
+        this.maxPeriodNanos = maxPeriodNanos;
+        this.timeoutMillis = timeoutMillis;
+        this.priority = priority;
+        this.probeType = probeType;
+        this.path = path;
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Compile the spec of a service.
+     *
+     * @param service The service
+     *
+     * @return The {@code ProbeSpec}
+     *
+     * @throws IllegalArgumentException if an attribute of the service is missing or invalid, the message says which
+     */
+    public static ProbeSpec compile(Service service) {
+        String name = service.getName();
+        if(name==null || name.trim().length()==0)
+            throw new IllegalArgumentException("A service must have a name");
+        String address = service.getAddress();
+        int separator = address==null?-1:address.lastIndexOf(':');
+        if(separator<=0)
+            throw new IllegalArgumentException("The address [" + address + "] of [" + name + "] is invalid, " +
+                                               "it must be in the form of host:port");
+        String host = address.substring(0, separator);
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if(port<=0 || port>0xFFFF)
+            throw new IllegalArgumentException("The port of [" + name + "] must be between 1 and 65535, " +
+                                               "not [" + address.substring(separator + 1) + "]");
+        TimeUnit timeUnit;
+        try {
+            timeUnit = TimeUnit.valueOf(service.getTimeUnit());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("The time unit [" + service.getTimeUnit() + "] of [" + name + "] " +
+                                               "is invalid");
+        }
+        long period = timeUnit.toNanos(parsePositive(name, "frequency", service.getFrequency()));
+        long minPeriod = period;
+        if(service.getMinFrequency()!=null)
+            minPeriod = timeUnit.toNanos(parsePositive(name, "minFrequency", service.getMinFrequency()));
+        long maxPeriod = period;
+        if(service.getMaxFrequency()!=null)
+            maxPeriod = timeUnit.toNanos(parsePositive(name, "maxFrequency", service.getMaxFrequency()));
+        if(minPeriod>period || maxPeriod<period)
+            throw new IllegalArgumentException("The frequency of [" + name + "] must be between its minFrequency " +
+                                               "and maxFrequency");
+        ProbeAdmission.Priority priority = ProbeAdmission.Priority.NORMAL;
+        if(service.getPriority()!=null) {
+            try {
+                priority = ProbeAdmission.Priority.valueOf(service.getPriority().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("The priority [" + service.getPriority() + "] of [" + name + "] " +
+                                                   "must be one of CRITICAL, HIGH, NORMAL or LOW");
+            }
+        }
+        String probeType = TcpProbe.TYPE;
+        if(service.getProbe()!=null) {
+            probeType = service.getProbe().trim().toLowerCase(Locale.ROOT);
+            if(ProbeRegistry.getDefault().get(probeType)==null)
+                throw new IllegalArgumentException("The probe [" + service.getProbe() + "] of [" + name + "] " +
+                                                   "is not a known probe type");
+        }
+        String path = service.getPath()==null?"/":service.getPath();
+        if(!path.startsWith("/"))
+            throw new IllegalArgumentException("The path [" + path + "] of [" + name + "] must start with /");
+        int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        if(service.getFailureThreshold()!=null) {
+            try {
+                failureThreshold = Integer.parseInt(service.getFailureThreshold());
+            } catch (NumberFormatException e) {
+                failureThreshold = -1;
+            }
+            if(failureThreshold<1 || failureThreshold>MAX_FAILURE_THRESHOLD)
+                throw new IllegalArgumentException("The failureThreshold [" + service.getFailureThreshold() + "] " +
+                                                   "of [" + name + "] must be between 1 and " +
+                                                   MAX_FAILURE_THRESHOLD);
+        }
+        long periodMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(period));
+        /* By default a probe has completed, or timed out, well before the next one is due */
+        int timeoutMillis = (int) Math.min(DEFAULT_TIMEOUT_MILLIS, Math.max(1, periodMillis / 2));
+        if(service.getTimeout()!=null) {
+            long timeout = parsePositive(name, "timeout", service.getTimeout());
+            if(timeout>periodMillis)
+                throw new IllegalArgumentException("The timeout [" + timeout + "] of [" + name + "] must not be " +
+                                                   "longer than its frequency, " + periodMillis + " milliseconds");
+            timeoutMillis = (int) timeout;
+        }
+        return new ProbeSpec(service, host, port, period, minPeriod, maxPeriod, timeoutMillis, priority,
+                             probeType, path, Math.max(1, Math.min(failureThreshold, MAX_FAILURE_THRESHOLD)));
+    }
+
+    private static long parsePositive(String name, String attribute, String value) {
+        long frequency;
+        try {
+            frequency = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            frequency = -1;
+        }
+        if(frequency<=0)
+            throw new IllegalArgumentException("The " + attribute + " [" + value + "] of [" + name + "] " +
+                                               "must be a number greater than 0");
+        return frequency;
+    }
+
+    /**
+     * @return The service the spec was compiled from
+     */
+    public Service getService() {
+        return service;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return The time between probes, in nanoseconds
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * @return The shortest time between probes, used to confirm a change in availability, in nanoseconds
+     */
+    public long getMinPeriodNanos() {
+        return minPeriodNanos;
+    }
+
+    /**
+     * @return The longest time between probes of a service that is not available, in nanoseconds
+     */
+    public long getMaxPeriodNanos() {
+        return maxPeriodNanos;
+    }
+
+    /**
+     * @return Whether the time between probes adapts to the availability of the service
+     */
+    public boolean isAdaptive() {
+        return minPeriodNanos!=periodNanos || maxPeriodNanos!=periodNanos;
+    }
+
+    /**
+     * @return The most time a probe may take, in milliseconds. The service's {@code timeout} attribute, by default
+     * the shorter of 2 seconds and half the frequency
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return The order in which the probe is admitted when probes are waiting, see {@link ProbeAdmission}
+     */
+    public ProbeAdmission.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The type of the {@link Probe} that checks the service, {@code tcp} by default
+     */
+    public String getProbeType() {
+        return probeType;
+    }
+
+    /**
+     * @return The path of the health endpoint, for HTTP probes, {@code /} by default
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The number of consecutive failed probes, including re-probes, before the service is notified as not
+     * available
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public String toString() {
+        return "ProbeSpec [ host: " + host + ", port: " + port + ", periodNanos: " + periodNanos +
+               ", minPeriodNanos: " + minPeriodNanos + ", maxPeriodNanos: " + maxPeriodNanos +
+               ", timeoutMillis: " + timeoutMillis + ", priority: " + priority +
+               ", probeType: " + probeType + ", path: " + path +
+               ", failureThreshold: " + failureThreshold + "]";
+    }
+}
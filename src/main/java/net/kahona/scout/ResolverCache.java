@@ -0,0 +1,145 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches host name resolution for probe targets. Successful lookups are cached for a TTL and refreshed in the
+ * background once they enter the last quarter of it, so a name that is probed regularly is never resolved on the
+ * probe path. A name that has just expired is served stale while it is refreshed, for at most one more TTL. Failed
+ * lookups are cached for a shorter, negative TTL.
+ *
+ * <p>The TTLs are set with the {@code scout.dns.ttl} and {@code scout.dns.negativeTtl} system properties, in
+ * milliseconds.</p>
+ *
+ * @author Dennis Reedy
+ */
+public final class ResolverCache {
+    private static final ResolverCache DEFAULT =
+        new ResolverCache(Long.getLong("scout.dns.ttl", 60000),
+                          Long.getLong("scout.dns.negativeTtl", 5000),
+                          TimeUnit.MILLISECONDS,
+                          Executors.newFixedThreadPool(2, new ProbeScheduler.NamedThreadFactory("scout-resolver")));
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Executor refreshExecutor;
+
+    /**
+     * Create a {@code ResolverCache}.
+     *
+     * @param ttl How long a successful lookup is cached
+     * @param negativeTtl How long a failed lookup is cached
+     * @param unit The time unit of the ttl and negativeTtl
+     * @param refreshExecutor The executor background refreshes run on
+     */
+    public ResolverCache(long ttl, long negativeTtl, TimeUnit unit, Executor refreshExecutor) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Get the cache shared by all {@link ServiceMonitor}s in this process.
+     *
+     * @return The default {@code ResolverCache}
+     */
+    public static ResolverCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Resolve a host name. Only blocks if the name has not been resolved recently.
+     *
+     * @param host The host name or IP address
+     *
+     * @return The resolved address
+     *
+     * @throws UnknownHostException if the host cannot be resolved, or failed to resolve within the negative TTL
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        Entry entry = entries.get(host);
+        long now = System.nanoTime();
+        if(entry==null || now-entry.staleAfter>=0) {
+            entry = lookup(host);
+        } else if(entry.address!=null && now-entry.refreshAfter>=0) {
+            refresh(host, entry);
+        }
+        if(entry.address==null)
+            throw new UnknownHostException(host);
+        return entry.address;
+    }
+
+    /**
+     * Remove a host from the cache.
+     *
+     * @param host The host name or IP address
+     */
+    public void evict(String host) {
+        entries.remove(host);
+    }
+
+    private Entry lookup(String host) {
+        long now = System.nanoTime();
+        Entry entry;
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            entry = new Entry(address, now + ttlNanos * 3 / 4, now + ttlNanos * 2);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, now + negativeTtlNanos, now + negativeTtlNanos);
+        }
+        entries.put(host, entry);
+        return entry;
+    }
+
+    private void refresh(final String host, final Entry entry) {
+        if(!entry.refreshing.compareAndSet(false, true))
+            return;
+        refreshExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    InetAddress address = InetAddress.getByName(host);
+                    long now = System.nanoTime();
+                    entries.put(host, new Entry(address, now + ttlNanos * 3 / 4, now + ttlNanos * 2));
+                } catch (UnknownHostException e) {
+                    /* Keep serving the previous address until it goes stale, the next probe retries */
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private static class Entry {
+        final InetAddress address;
+        final long refreshAfter;
+        final long staleAfter;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(InetAddress address, long refreshAfter, long staleAfter) {
+            this.address = address;
+            this.refreshAfter = refreshAfter;
+            this.staleAfter = staleAfter;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed block of probe results of one service, encoded as in Facebook's Gorilla time series database. Each
+ * sample costs a few bits when probes run at a steady rate with steady latency:
+ *
+ * <ul>
+ * <li>Timestamps, in milliseconds, are stored as the difference between successive deltas, in a variable number
+ * of bits. A probe that ran exactly one period after the previous one costs one bit.</li>
+ * <li>Whether the probe succeeded is one bit.</li>
+ * <li>Latencies, in microseconds, are XORed with the previous latency and only the bits that differ are
+ * stored. An unchanged latency costs one bit.</li>
+ * </ul>
+ *
+ * <p>A block is appended to by a single thread. It is not thread safe.</p>
+ *
+ * @author Dennis Reedy
+ */
+final class SampleBlock {
+    private byte[] bits = new byte[64];
+    private int bitCount;
+    private int count;
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+    private long lastLatency;
+    private int lastLeading = Integer.MAX_VALUE;
+    private int lastTrailing;
+
+    /**
+     * Append a sample. Times should not go backwards, a time before the last one is stored as the last one.
+     *
+     * @param time When the probe completed, in milliseconds since the epoch
+     * @param available Whether the probe succeeded
+     * @param latencyMicros The time the probe took, in microseconds
+     */
+    void append(long time, boolean available, long latencyMicros) {
+        if(count==0) {
+            firstTime = time;
+            lastTime = time;
+            write(time, 64);
+            write(latencyMicros, 64);
+        } else {
+            time = Math.max(time, lastTime);
+            long delta = time - lastTime;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            lastTime = time;
+            writeXor(latencyMicros ^ lastLatency);
+        }
+        write(available?1:0, 1);
+        lastLatency = latencyMicros;
+        count++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getFirstTime() {
+        return firstTime;
+    }
+
+    long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return The encoded samples
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bits, (bitCount + 7) >>> 3);
+    }
+
+    /**
+     * Decode the samples of a block that fall within a time range.
+     *
+     * @param service The name of the service the block holds samples of
+     * @param data The encoded samples
+     * @param count The number of samples in the block
+     * @param from The start of the range, inclusive, in milliseconds since the epoch
+     * @param to The end of the range, exclusive, in milliseconds since the epoch
+     * @param samples The list to add the samples in the range to
+     */
+    static void decode(String service, byte[] data, int count, long from, long to, List<ProbeHistory.Sample> samples) {
+        Reader in = new Reader(data);
+        long time = 0;
+        long delta = 0;
+        long latency = 0;
+        int leading = 0;
+        int trailing = 0;
+        for(int i=0; i<count; i++) {
+            if(i==0) {
+                time = in.read(64);
+                latency = in.read(64);
+            } else {
+                delta += in.readDeltaOfDelta();
+                time += delta;
+                if(in.read(1)==1) {
+                    if(in.read(1)==1) {
+                        leading = (int) in.read(6);
+                        int length = (int) in.read(6) + 1;
+                        trailing = 64 - leading - length;
+                    }
+                    latency ^= in.read(64 - leading - trailing) << trailing;
+                }
+            }
+            boolean available = in.read(1)==1;
+            if(time>=to)
+                break;
+            if(time>=from)
+                samples.add(new ProbeHistory.Sample(service, time, available, latency));
+        }
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if(dod==0) {
+            write(0, 1);
+        } else if(dod>=-63 && dod<=64) {
+            write(0x2, 2);
+            write(dod, 7);
+        } else if(dod>=-255 && dod<=256) {
+            write(0x6, 3);
+            write(dod, 9);
+        } else if(dod>=-2047 && dod<=2048) {
+            write(0xE, 4);
+            write(dod, 12);
+        } else {
+            write(0xF, 4);
+            write(dod, 64);
+        }
+    }
+
+    private void writeXor(long xor) {
+        if(xor==0) {
+            write(0, 1);
+            return;
+        }
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 63);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if(leading>=lastLeading && trailing>=lastTrailing) {
+            /* The differing bits fit in the previous window */
+            write(0x2, 2);
+            write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int length = 64 - leading - trailing;
+            write(0x3, 2);
+            write(leading, 6);
+            write(length - 1, 6);
+            write(xor >>> trailing, length);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void write(long value, int n) {
+        if(bitCount + n > bits.length * 8)
+            bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (bitCount + n + 7) >>> 3));
+        for(int i=n-1; i>=0; i--) {
+            if(((value >>> i) & 1)!=0)
+                bits[bitCount >>> 3] |= (byte) (0x80 >>> (bitCount & 7));
+            bitCount++;
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bits;
+        private int position;
+
+        Reader(byte[] bits) {
+            this.bits = bits;
+        }
+
+        long read(int n) {
+            long value = 0;
+            for(int i=0; i<n; i++) {
+                value = (value << 1) | ((bits[position >>> 3] >>> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return value;
+        }
+
+        long readDeltaOfDelta() {
+            if(read(1)==0)
+                return 0;
+            if(read(1)==0)
+                return signed(read(7), 7);
+            if(read(1)==0)
+                return signed(read(9), 9);
+            if(read(1)==0)
+                return signed(read(12), 12);
+            return read(64);
+        }
+
+        /* The ranges are asymmetric, as in Gorilla, so a value with the top bit set above the positive limit is
+           negative */
+        private static long signed(long value, int n) {
+            long limit = 1L << (n - 1);
+            return value>limit?value - (1L << n):value;
+        }
+    }
+}
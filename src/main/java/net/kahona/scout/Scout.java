@@ -21,11 +21,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.net.URL;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Date;
+import java.util.List;
 
 /**
  * Uses system tray to provide notification for network service availability.
@@ -36,8 +32,14 @@ public class Scout {
     private SystemTray tray;
     private TrayIcon trayIcon;
     private final PopupMenu popup = new PopupMenu();
-    private final Collection<ServiceMonitor> serviceMonitors = new ArrayList<ServiceMonitor>();
+    private final EventBus events = new EventBus();
+    private final MonitorRegistry serviceMonitors = new MonitorRegistry(events);
     private final NotificationTable notificationTable = new NotificationTable();
+    private final AlertAggregator alertAggregator = new AlertAggregator(Integer.getInteger("scout.alert.window", 750));
+    private EventJournal journal;
+    private ProbeHistory history;
+    private ConfigurationWatcher configurationWatcher;
+    private MetricsServer metricsServer;
 
     /* Suppress PMD warning, we want to throw a RuntimeException if the system tray is not supported */
     @SuppressWarnings("PMD.AvoidThrowingRawExceptionTypes")
@@ -79,7 +81,7 @@ public class Scout {
                 if(dialog.getAction().equals(ServiceConfigurationDialog.Action.ADDED)) {
                     Service s = dialog.getService();
                     Configuration.append(s);
-                    serviceMonitors.add(new ServiceMonitor(s, new ServiceNotificationListener()));
+                    serviceMonitors.start(s);
                 }
             }
         });
@@ -87,8 +89,9 @@ public class Scout {
         showServices.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent actionEvent) {
                 JTabbedPane tabs = new JTabbedPane();
-                for(ServiceMonitor monitor : serviceMonitors) {
-                    tabs.add(monitor.getService().getName(), new ServiceConfigurationPanel(monitor.getService()));
+                for(ServiceMonitor monitor : serviceMonitors.getMonitors()) {
+                    tabs.add(monitor.getService().getName(),
+                             new ServiceConfigurationPanel(monitor.getService(), monitor.getAvailabilityStats()));
                 }
                 ServiceConfigurationDialog dialog = new ServiceConfigurationDialog(tabs, false);
                 dialog.setAlwaysOnTop(true);
@@ -96,24 +99,14 @@ public class Scout {
                 dialog.setVisible(true);
                 Service service = dialog.getService();
                 if(dialog.getAction()==ServiceConfigurationDialog.Action.DELETED) {
-                    for(ServiceMonitor s : getServiceMonitors()) {
-                        if(s.getService().getName().equals(service.getName())) {
-                            s.terminate();
-                            serviceMonitors.remove(s);
-                            Configuration.remove(service);
-                            break;
-                        }
+                    if(serviceMonitors.get(service.getName())!=null) {
+                        serviceMonitors.stop(service.getName());
+                        Configuration.remove(service);
                     }
                 } else if(dialog.getAction()==ServiceConfigurationDialog.Action.MODIFIED) {
-                    for(ServiceMonitor s : getServiceMonitors()) {
-                        if(s.getService().getName().equals(service.getName())) {
-                            s.terminate();
-                            serviceMonitors.remove(s);
-                            Configuration.remove(service);
-                            Configuration.append(service);
-                            serviceMonitors.add(new ServiceMonitor(service, new ServiceNotificationListener()));
-                            break;
-                        }
+                    if(serviceMonitors.get(service.getName())!=null) {
+                        Configuration.replace(service);
+                        serviceMonitors.update(service);
                     }
                 }
             }
@@ -139,25 +132,64 @@ public class Scout {
 
         exitItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                for(ServiceMonitor s : serviceMonitors)
-                    s.terminate();
+                if(configurationWatcher!=null)
+                    configurationWatcher.close();
+                if(metricsServer!=null)
+                    metricsServer.close();
+                serviceMonitors.terminate();
+                events.close();
+                if(journal!=null)
+                    journal.close();
+                if(history!=null)
+                    history.close();
+                Configuration.flush();
                 tray.remove(trayIcon);
                 System.exit(0);
             }
         });
     }
 
-    private ServiceMonitor[] getServiceMonitors() {
-        return serviceMonitors.toArray(new ServiceMonitor[serviceMonitors.size()]);
-    }
-
     private void show() throws AWTException {
         tray.add(trayIcon);
     }
 
     private void loadAndStart() throws IOException {
+        try {
+            journal = EventJournal.open();
+            /* Fill the table with as much of the history as it holds */
+            int reload = Integer.getInteger("scout.journal.reload",
+                                            notificationTable.getTableModel().getCapacity());
+            for(ServiceEvent event : journal.readLast(reload))
+                notificationTable.add(event);
+        } catch (IOException e) {
+            System.err.println("Unable to open the notification journal, notifications will not be kept");
+            e.printStackTrace();
+        }
+        try {
+            history = ProbeHistory.open();
+            serviceMonitors.addProbeListener(history);
+        } catch (IOException e) {
+            System.err.println("Unable to open the probe history, probe results will not be kept");
+            e.printStackTrace();
+        }
+        subscribe();
         for(Service s : Configuration.read()) {
-            serviceMonitors.add(new ServiceMonitor(s, new ServiceNotificationListener()));
+            serviceMonitors.start(s);
+        }
+        configurationWatcher = ConfigurationWatcher.watch(new ConfigurationWatcher.Listener() {
+            public void configurationChanged(ConfigurationDiff diff) {
+                serviceMonitors.apply(diff);
+            }
+        });
+        try {
+            metricsServer = MetricsServer.startIfEnabled(serviceMonitors);
+            if(metricsServer!=null) {
+                metricsServer.setEvents(events);
+                metricsServer.setJournal(journal);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to start the metrics server");
+            e.printStackTrace();
         }
     }
 
@@ -171,31 +203,26 @@ public class Scout {
         }
     }
 
-    class ServiceNotificationListener implements NotificationListener {
-
-        public void serviceIsNowAvailable(Service service) {
-            String dateStamp = getDateStamp();
-            notificationTable.addServiceNowAvailable(service, dateStamp);
-            new AlertWindow("The ["+service.getName()+"] service is now available",
-                            service.getAddress(),
-                            dateStamp,
-                            UIManager.getIcon("OptionPane.informationIcon")).setVisible(true);
-        }
-
-        public void serviceNotAvailable(Service service) {
-            String dateStamp = getDateStamp();
-            notificationTable.addFailedService(service, dateStamp);
-            new AlertWindow("The ["+service.getName()+"] service is not reachable",
-                            service.getAddress(),
-                            dateStamp,
-                            UIManager.getIcon("OptionPane.errorIcon")).setVisible(true);
-        }
-
-        String getDateStamp() {
-            DateFormat dateFormat = new SimpleDateFormat("MM/dd/yy hh:mm:ss aa");
-            Date date = new Date(System.currentTimeMillis());
-            return dateFormat.format(date);
-        }
+    /*
+     * The journal is appended to as events are published, it keeps every event. Each other consumer gets its own
+     * subscription, so a slow one does not hold up the others or the probes. The table shows the most recent
+     * events, alerts only need the latest state of each service.
+     */
+    private void subscribe() {
+        int capacity = Integer.getInteger("scout.events.capacity", 8192);
+        events.setJournal(journal);
+        events.subscribe("table", new EventBus.Subscriber() {
+            public void serviceEvents(List<ServiceEvent> batch) {
+                for(ServiceEvent event : batch)
+                    notificationTable.add(event);
+            }
+        }, capacity, EventBus.Overflow.DROP_OLDEST, 256);
+        events.subscribe("alerts", new EventBus.Subscriber() {
+            public void serviceEvents(List<ServiceEvent> batch) {
+                for(ServiceEvent event : batch)
+                    alertAggregator.add(event);
+            }
+        }, capacity, EventBus.Overflow.COALESCE, 256);
     }
 
    public static void main(String[] args) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs Scout without a system tray, for servers. Notifications are written to the {@code net.kahona.scout} logger
+ * and the event journal. This class, and everything it uses, does not load AWT or Swing.
+ *
+ * <pre>java -cp scout-1.0.jar net.kahona.scout.ScoutDaemon</pre>
+ *
+ * @author Dennis Reedy
+ */
+public class ScoutDaemon {
+    private static final Logger logger = Logger.getLogger("net.kahona.scout");
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private EventJournal journal;
+    private ProbeHistory history;
+    private final EventBus events = new EventBus();
+    private MonitorRegistry monitors;
+    private ConfigurationWatcher configurationWatcher;
+    private MetricsServer metricsServer;
+    private Cluster cluster;
+
+    void start() throws IOException {
+        try {
+            journal = EventJournal.open();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open the notification journal, notifications will not be kept", e);
+        }
+        /* Every event is journaled as it is published, the log may drop events if it falls behind */
+        events.setJournal(journal);
+        events.subscribe("log",
+                         new LoggingNotificationListener(logger, null),
+                         Integer.getInteger("scout.events.capacity", 8192),
+                         EventBus.Overflow.DROP_OLDEST,
+                         256);
+        monitors = new MonitorRegistry(events);
+        try {
+            history = ProbeHistory.open();
+            monitors.addProbeListener(history);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open the probe history, probe results will not be kept", e);
+        }
+        cluster = Cluster.startIfEnabled(monitors);
+        if(cluster==null) {
+            for(Service s : Configuration.read())
+                monitors.start(s);
+        } else {
+            logger.info("Joining cluster as " + cluster.getId() + ", probing a share of the services");
+            cluster.setServices(Arrays.asList(Configuration.read()));
+        }
+        configurationWatcher = ConfigurationWatcher.watch(new ConfigurationWatcher.Listener() {
+            public void configurationChanged(ConfigurationDiff diff) {
+                logger.info("Configuration changed, " + diff);
+                if(cluster==null)
+                    monitors.apply(diff);
+                else
+                    cluster.apply(diff);
+            }
+        });
+        metricsServer = MetricsServer.startIfEnabled(monitors);
+        if(metricsServer!=null) {
+            metricsServer.setCluster(cluster);
+            metricsServer.setEvents(events);
+            metricsServer.setJournal(journal);
+            logger.info("Serving metrics on http://" + metricsServer.getAddress().getAddress().getHostAddress() + ":" +
+                        metricsServer.getAddress().getPort() + "/metrics");
+        }
+    }
+
+    void stop() {
+        if(configurationWatcher!=null)
+            configurationWatcher.close();
+        if(metricsServer!=null)
+            metricsServer.close();
+        if(cluster!=null)
+            cluster.close();
+        if(monitors!=null)
+            monitors.terminate();
+        events.close();
+        if(journal!=null)
+            journal.close();
+        if(history!=null)
+            history.close();
+        Configuration.flush();
+        stopped.countDown();
+    }
+
+    void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    public static void main(String[] args) throws Exception {
+        /* Nothing here should touch AWT, make sure a stray call cannot initialize a display */
+        System.setProperty("java.awt.headless", "true");
+        final ScoutDaemon daemon = new ScoutDaemon();
+        daemon.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                logger.info("Stopping Scout");
+                daemon.stop();
+            }
+        }, "scout-shutdown"));
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        logger.info("Scout started monitoring " + daemon.monitors.size() + " services in " +
+                    ManagementFactory.getRuntimeMXBean().getUptime() + " ms, heap used: " +
+                    heap.getUsed() / (1024 * 1024) + " MB");
+        daemon.awaitStop();
+    }
+}
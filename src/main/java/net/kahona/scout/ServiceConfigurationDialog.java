@@ -107,7 +107,19 @@ public class ServiceConfigurationDialog extends JDialog {
         String address = getAddress();
         String frequency = getFrequency();
         String timeUnit = getTimeUnit();
-        return new Service(serviceName, address, frequency, timeUnit);
+        Service service = new Service(serviceName, address, frequency, timeUnit);
+        /* Keep the attributes that are only set in scout.xml */
+        Service configured = getServiceConfigurationPanel().getConfiguredService();
+        if(configured!=null) {
+            service.setMinFrequency(configured.getMinFrequency());
+            service.setMaxFrequency(configured.getMaxFrequency());
+            service.setPriority(configured.getPriority());
+            service.setProbe(configured.getProbe());
+            service.setPath(configured.getPath());
+            service.setFailureThreshold(configured.getFailureThreshold());
+            service.setTimeout(configured.getTimeout());
+        }
+        return service;
     }
 
     private ServiceConfigurationPanel getServiceConfigurationPanel() {
@@ -184,11 +196,17 @@ public class ServiceConfigurationDialog extends JDialog {
             }
 
             try {
-                new Long(frequency);
+                Long.parseLong(frequency);
             } catch (NumberFormatException e) {
                 showError("The value " + frequency + " is not a number");
                 return;
             }
+            try {
+                ProbeSpec.compile(getService());
+            } catch (IllegalArgumentException e) {
+                showError(e.getMessage());
+                return;
+            }
             action = Action.ADDED;
             dialog.dispose();
         }
@@ -228,6 +246,12 @@ public class ServiceConfigurationDialog extends JDialog {
         }
 
         public void actionPerformed(ActionEvent actionEvent) {
+            try {
+                ProbeSpec.compile(getService());
+            } catch (IllegalArgumentException e) {
+                showError(e.getMessage());
+                return;
+            }
             action = Action.MODIFIED;
             dialog.dispose();
         }
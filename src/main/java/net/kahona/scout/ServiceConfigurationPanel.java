@@ -17,9 +17,13 @@ package net.kahona.scout;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A panel for service configuration.
+ * A panel for service configuration. A panel for a running service also shows its availability, refreshed while
+ * the panel is showing.
  *
  * @author Dennis Reedy
  */
@@ -28,9 +32,25 @@ public class ServiceConfigurationPanel extends JPanel {
     private JTextField address;
     private JTextField frequency;
     private JComboBox timeUnits;
+    private final Service service;
+    private final AvailabilityStats stats;
+    private final JLabel[][] statLabels = new JLabel[AvailabilityStats.Window.values().length][3];
+    private final JLabel streak = new JLabel();
+    private Timer refresh;
 
     public ServiceConfigurationPanel(Service service) {
+        this(service, null);
+    }
+
+    /**
+     * Create a panel for a service.
+     *
+     * @param service The service, or {@code null} for a new service
+     * @param stats The availability of the service, or {@code null} if it is not being monitored
+     */
+    public ServiceConfigurationPanel(Service service, AvailabilityStats stats) {
         super(new BorderLayout(8, 8));
+        this.service = service;
         String[] labels = new String[]{"Service Name", "Network Address", "Frequency", "Time Units"};
         String[] tips = new String[]{"The descriptive name of the service to monitor",
                                      "The network address (ip address and port) of the service to monitor",
@@ -72,6 +92,80 @@ public class ServiceConfigurationPanel extends JPanel {
         }
         add(labelPanel, BorderLayout.WEST);
         add(fieldPanel, BorderLayout.CENTER);
+        this.stats = stats;
+        if(stats!=null)
+            add(createAvailabilityPanel(), BorderLayout.SOUTH);
+    }
+
+    private JPanel createAvailabilityPanel() {
+        String[] windows = new String[]{"Last hour", "Last 24 hours", "Last 7 days", "Last 30 days"};
+        JPanel grid = new JPanel(new GridLayout(windows.length + 1, 4, 8, 2));
+        grid.add(new JLabel());
+        grid.add(new JLabel("Availability", JLabel.RIGHT));
+        grid.add(new JLabel("Outages", JLabel.RIGHT));
+        grid.add(new JLabel("MTTR", JLabel.RIGHT));
+        for(int i=0; i<windows.length; i++) {
+            grid.add(new JLabel(windows[i]));
+            for(int j=0; j<3; j++) {
+                statLabels[i][j] = new JLabel("", JLabel.RIGHT);
+                grid.add(statLabels[i][j]);
+            }
+        }
+        JPanel panel = new JPanel(new BorderLayout(4, 4));
+        panel.setBorder(BorderFactory.createTitledBorder("Availability"));
+        panel.add(grid, BorderLayout.CENTER);
+        panel.add(streak, BorderLayout.SOUTH);
+        updateAvailability();
+        refresh = new Timer(5000, new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                updateAvailability();
+            }
+        });
+        return panel;
+    }
+
+    private void updateAvailability() {
+        for(AvailabilityStats.Window window : AvailabilityStats.Window.values()) {
+            JLabel[] labels = statLabels[window.ordinal()];
+            double availability = stats.getAvailability(window);
+            labels[0].setText(Double.isNaN(availability)?"-":String.format("%.3f%%", availability * 100));
+            labels[1].setText(Long.toString(stats.getOutageCount(window)));
+            long mttr = stats.getMttrMillis(window);
+            labels[2].setText(mttr==0?"-":formatDuration(mttr));
+        }
+        long streakMillis = stats.getStreakMillis(System.currentTimeMillis());
+        streak.setText(streakMillis==0?"Not probed yet":
+                       (stats.isUp()?"Up":"Down") + " for " + formatDuration(streakMillis));
+    }
+
+    public void addNotify() {
+        super.addNotify();
+        if(refresh!=null)
+            refresh.start();
+    }
+
+    public void removeNotify() {
+        if(refresh!=null)
+            refresh.stop();
+        super.removeNotify();
+    }
+
+    static String formatDuration(long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        if(seconds<60)
+            return seconds + "s";
+        if(seconds<3600)
+            return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        if(seconds<86400)
+            return String.format("%dh %02dm", seconds / 3600, (seconds % 3600) / 60);
+        return String.format("%dd %02dh", seconds / 86400, (seconds % 86400) / 3600);
+    }
+
+    /**
+     * @return The service the panel was created with, or {@code null} if the panel is for a new service
+     */
+    Service getConfiguredService() {
+        return service;
     }
 
     public String getServiceName() {
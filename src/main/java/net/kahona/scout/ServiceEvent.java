@@ -0,0 +1,57 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+/**
+ * A change in the availability of a service.
+ *
+ * @author Dennis Reedy
+ */
+public class ServiceEvent {
+    public enum Type {AVAILABLE, NOT_AVAILABLE}
+    private final Service service;
+    private final Type type;
+    private final long time;
+
+    /**
+     * Create a {@code ServiceEvent}.
+     *
+     * @param service The service
+     * @param type Whether the service became available or not available
+     * @param time When the change was detected, in milliseconds since the epoch
+     */
+    public ServiceEvent(Service service, Type type, long time) {
+        this.service = service;
+        this.type = type;
+        this.time = time;
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String toString() {
+        return "ServiceEvent [ service: " + service.getName() + ", type: " + type + ", time: " + time + "]";
+    }
+}
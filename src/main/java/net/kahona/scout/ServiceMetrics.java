@@ -0,0 +1,107 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the probes of one service, updated by its {@link ServiceMonitor} and read when the metrics are
+ * scraped. Updates and reads do not lock.
+ *
+ * @author Dennis Reedy
+ */
+public final class ServiceMetrics {
+    /**
+     * The service has not yet been probed.
+     */
+    public static final int UNKNOWN = -1;
+    public static final int DOWN = 0;
+    public static final int UP = 1;
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder skippedTicks = new LongAdder();
+    private final MetricHistogram connectLatency = new MetricHistogram();
+    private volatile int state = UNKNOWN;
+
+    void record(boolean available, long connectNanos) {
+        probes.increment();
+        if(available) {
+            connectLatency.record(connectNanos);
+        } else {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Record how long a scheduled probe took, from when its tick was due, including any time it waited for the
+     * scheduler, to when it completed. Re-probes that confirm a failure are not included. A probe that took longer
+     * than the period is an overrun, and the ticks that passed meanwhile were skipped.
+     */
+    void recordDuration(long durationNanos, long periodNanos) {
+        if(durationNanos>periodNanos) {
+            overruns.increment();
+            skippedTicks.add(durationNanos / periodNanos);
+        }
+    }
+
+    /**
+     * Record a tick that was skipped while a failure of the service was being confirmed.
+     */
+    void recordSkippedTick() {
+        skippedTicks.increment();
+    }
+
+    void setState(int state) {
+        this.state = state;
+    }
+
+    /**
+     * @return {@link #UP}, {@link #DOWN} or {@link #UNKNOWN}
+     */
+    public int getState() {
+        return state;
+    }
+
+    public long getProbeCount() {
+        return probes.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return The number of probes that were in flight for longer than the period
+     */
+    public long getOverrunCount() {
+        return overruns.sum();
+    }
+
+    /**
+     * @return The number of times the service was due to be probed while a probe of it was still in flight
+     */
+    public long getSkippedTickCount() {
+        return skippedTicks.sum();
+    }
+
+    /**
+     * @return The connect latencies of successful probes
+     */
+    public MetricHistogram getConnectLatency() {
+        return connectLatency;
+    }
+}
@@ -15,79 +15,229 @@
  */
 package net.kahona.scout;
 
-import java.io.IOException;
-import java.net.*;
-import java.util.concurrent.*;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Monitors a network service by pinging it.
+ * Monitors a network service by pinging it. The service is probed through the {@link Endpoint} of its address,
+ * which is shared with every other monitored service that has the same address. The notification listener is
+ * called on the probe thread, it should hand notifications off, see {@link EventBus}.
  *
  * @author Dennis Reedy
  */
 public class ServiceMonitor {
-    private Service service;
-    private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
-    private NotificationListener notificationListener;
-    private boolean hadFailed;
+    /**
+     * How a probe connects to the service. {@code NIO} uses a non-blocking connect multiplexed by the
+     * {@link ConnectProber}, {@code BLOCKING} connects with a {@link Socket} on a scheduler worker thread and
+     * {@code VIRTUAL} connects with a {@link Socket} on a new virtual thread. If the JVM does not support
+     * virtual threads, {@code VIRTUAL} behaves as {@code BLOCKING}.
+     */
+    public enum ProbeMode {NIO, BLOCKING, VIRTUAL}
+    static final ProbeMode DEFAULT_PROBE_MODE =
+        ProbeMode.valueOf(System.getProperty("scout.probe.mode", ProbeMode.NIO.name()).toUpperCase());
+    static final long LATENCY_WINDOW_SECONDS = Long.getLong("scout.latency.window", 300);
+    private volatile ProbeSpec spec;
+    private final ProbeScheduler scheduler;
+    private final ProbeMode probeMode;
+    private Endpoint endpoint;
+    private volatile long periodNanos;
+    private final AdaptiveFrequency frequency = new AdaptiveFrequency();
+    private final LatencyHistogram latency = new LatencyHistogram(LATENCY_WINDOW_SECONDS, TimeUnit.SECONDS);
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private final AvailabilityStats availability = new AvailabilityStats();
+    private final List<ProbeListener> probeListeners = new CopyOnWriteArrayList<ProbeListener>();
+    private final NotificationListener notificationListener;
+    private final AtomicBoolean hadFailed = new AtomicBoolean();
+    private int consecutiveFailures;
 
+    /**
+     * Create a {@code ServiceMonitor} and start probing the service.
+     *
+     * @param service The service to monitor
+     * @param notificationListener Notified when the availability of the service changes
+     *
+     * @throws IllegalArgumentException if the service is invalid, see {@link ProbeSpec#compile(Service)}
+     */
     public ServiceMonitor(Service service, NotificationListener notificationListener) {
-        this.service = service;
+        this(ProbeSpec.compile(service), notificationListener, ProbeScheduler.getDefault(), DEFAULT_PROBE_MODE);
+    }
+
+    public ServiceMonitor(ProbeSpec spec,
+                          NotificationListener notificationListener,
+                          ProbeScheduler scheduler,
+                          ProbeMode probeMode) {
         this.notificationListener = notificationListener;
-        executorService.scheduleAtFixedRate(new Monitor(),
-                                            0,
-                                            new Long(service.getFrequency()),
-                                            TimeUnit.valueOf(service.getTimeUnit()));
+        this.scheduler = scheduler;
+        this.probeMode = probeMode;
+        this.spec = spec;
+        this.periodNanos = spec.getPeriodNanos();
+        synchronized(this) {
+            endpoint = Endpoint.join(this, scheduler, probeMode);
+        }
     }
 
-    void terminate() {
-        executorService.shutdownNow();
+    /**
+     * Apply a new definition of the service without losing the monitor's state, the service is not notified as
+     * available or not available again unless its availability changes. If the address changed the monitor moves
+     * to the endpoint of the new address. An adaptive frequency starts over at the new period.
+     *
+     * @param service The new definition of the service, with the same name
+     *
+     * @throws IllegalArgumentException if the service is invalid, see {@link ProbeSpec#compile(Service)}
+     */
+    synchronized void reschedule(Service service) {
+        ProbeSpec newSpec = ProbeSpec.compile(service);
+        boolean addressChanged = !Endpoint.keyOf(newSpec).equals(Endpoint.keyOf(spec));
+        spec = newSpec;
+        frequency.reset();
+        periodNanos = newSpec.getPeriodNanos();
+        if(endpoint==null)
+            return;
+        if(addressChanged) {
+            endpoint.leave(this);
+            endpoint = Endpoint.join(this, scheduler, probeMode);
+        } else {
+            endpoint.reschedule();
+        }
+    }
+
+    synchronized void terminate() {
+        if(endpoint!=null)
+            endpoint.leave(this);
+        endpoint = null;
     }
 
     public Service getService() {
-        return service;
+        return spec.getService();
     }
 
-    private void notifyOnFailure() {
-        if(!hadFailed) {
-            hadFailed = true;
-            notificationListener.serviceNotAvailable(service);
-        }
+    public ProbeSpec getProbeSpec() {
+        return spec;
+    }
+
+    /**
+     * @return The time this monitor asks for between probes, which adapts if the service's frequency is adaptive
+     */
+    long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    synchronized Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return Whether a probe of the service has been started and has not yet completed
+     */
+    boolean isProbeInFlight() {
+        Endpoint current = getEndpoint();
+        return current!=null && current.isProbeInFlight();
+    }
+
+    /**
+     * Get the connect latency percentiles of the service's recent successful probes.
+     *
+     * @return A {@code LatencySnapshot}, never {@code null}
+     */
+    public LatencySnapshot getLatency() {
+        return latency.getSnapshot();
+    }
+
+    /**
+     * @return The probe counters of the service
+     */
+    public ServiceMetrics getMetrics() {
+        return metrics;
     }
 
-    class Monitor implements Runnable {
-        public void run() {
-            Socket sock = null;
-            try {
-                String address = service.getAddress();
-                String[] addressParts = address.split(":");
-                int port = new Integer(addressParts[1]);
-                InetAddress serviceAddress = InetAddress.getByName(addressParts[0]);
-                SocketAddress socketAddress = new InetSocketAddress(serviceAddress, port);
-                // Create an unbound socket
-                sock = new Socket();
-                // This method will block no more than timeoutMs.
-                // If the timeout occurs, SocketTimeoutException is thrown.
-                int timeoutMs = 2000;   // 2 seconds
-                sock.connect(socketAddress, timeoutMs);
-                if(hadFailed) {
-                    notificationListener.serviceIsNowAvailable(service);
-                }
-                hadFailed = false;
-            } catch (UnknownHostException e) {
-                notifyOnFailure();
-            } catch (SocketTimeoutException e) {
-                notifyOnFailure();
-            } catch (IOException e) {
-                notifyOnFailure();
-            } finally {
-                if(sock!=null) {
-                    try {
-                        sock.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    /**
+     * @return The availability, outages and time to recovery of the service over sliding windows
+     */
+    public AvailabilityStats getAvailabilityStats() {
+        return availability;
+    }
+
+    public void addProbeListener(ProbeListener listener) {
+        probeListeners.add(listener);
+    }
+
+    public void removeProbeListener(ProbeListener listener) {
+        probeListeners.remove(listener);
+    }
+
+    /**
+     * Called by an endpoint when a probe of it completes. The endpoint probes with the longest timeout of its
+     * monitors, a connect that took longer than this service's timeout counts as failed. The service is only
+     * notified as not available once its failure threshold of consecutive probes have failed.
+     *
+     * @param source The endpoint that was probed
+     * @param available Whether the connect succeeded
+     * @param connectNanos The time the connect took, in nanoseconds
+     * @param confirming Whether the probe was a re-probe to confirm a failure
+     */
+    void probeCompleted(Endpoint source, boolean available, long connectNanos, boolean confirming) {
+        ProbeSpec probeSpec;
+        synchronized(this) {
+            /* Ignore the result of a probe of an address the service has moved away from */
+            if(source!=endpoint)
+                return;
+            probeSpec = spec;
+        }
+        if(available && connectNanos>TimeUnit.MILLISECONDS.toNanos(probeSpec.getTimeoutMillis()))
+            available = false;
+        if(available)
+            latency.record(connectNanos);
+        metrics.record(available, connectNanos);
+        for(ProbeListener listener : probeListeners)
+            listener.probeCompleted(probeSpec.getService(), available, connectNanos);
+        boolean changed;
+        if(available) {
+            consecutiveFailures = 0;
+            changed = notifyOnSuccess();
+        } else {
+            consecutiveFailures++;
+            changed = consecutiveFailures>=probeSpec.getFailureThreshold() && notifyOnFailure();
+        }
+        boolean failed = hadFailed.get();
+        if(available || failed)
+            metrics.setState(failed?ServiceMetrics.DOWN:ServiceMetrics.UP);
+        /* A gap of more than a few periods means probes were not running, it says nothing about the service */
+        availability.record(System.currentTimeMillis(),
+                            !failed,
+                            TimeUnit.NANOSECONDS.toMillis(probeSpec.getMaxPeriodNanos()) * 3);
+        /* Re-probes do not count towards backing off, only the change they confirm does */
+        if(probeSpec.isAdaptive() && (!confirming || changed)) {
+            synchronized(this) {
+                if(probeSpec==spec)
+                    periodNanos = frequency.next(probeSpec, available, changed);
             }
         }
     }
+
+    /**
+     * @return Whether the last probe failed, but not yet enough consecutive probes to notify that the service is
+     * not available
+     */
+    boolean isConfirmingFailure() {
+        return !hadFailed.get() && consecutiveFailures>0;
+    }
+
+    private boolean notifyOnFailure() {
+        if(hadFailed.compareAndSet(false, true)) {
+            notificationListener.serviceNotAvailable(spec.getService());
+            return true;
+        }
+        return false;
+    }
+
+    private boolean notifyOnSuccess() {
+        if(hadFailed.compareAndSet(true, false)) {
+            notificationListener.serviceIsNowAvailable(spec.getService());
+            return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Checks that an endpoint accepts TCP connections. In {@link ServiceMonitor.ProbeMode#NIO} mode the connect is
+ * made by the {@link ConnectProber}, otherwise with a blocking {@link Socket}.
+ *
+ * @author Dennis Reedy
+ */
+final class TcpProbe implements Probe {
+    static final String TYPE = "tcp";
+    private static final TcpProbe NIO = new TcpProbe(ServiceMonitor.ProbeMode.NIO);
+    private static final TcpProbe BLOCKING = new TcpProbe(ServiceMonitor.ProbeMode.BLOCKING);
+    private final ServiceMonitor.ProbeMode probeMode;
+
+    private TcpProbe(ServiceMonitor.ProbeMode probeMode) {
+        this.probeMode = probeMode;
+    }
+
+    /**
+     * Get the TCP probe for a probe mode.
+     *
+     * @param probeMode The probe mode
+     *
+     * @return The probe
+     */
+    static TcpProbe forMode(ServiceMonitor.ProbeMode probeMode) {
+        return probeMode==ServiceMonitor.ProbeMode.NIO?NIO:BLOCKING;
+    }
+
+    public String getType() {
+        return TYPE;
+    }
+
+    public void probe(ProbeSpec spec, InetSocketAddress address, int timeoutMillis, ConnectProber.Callback callback) {
+        if(probeMode==ServiceMonitor.ProbeMode.NIO) {
+            ConnectProber.getDefault().connect(address, timeoutMillis, callback);
+            return;
+        }
+        Socket sock = null;
+        long started = System.nanoTime();
+        try {
+            // Create an unbound socket
+            sock = new Socket();
+            // This method will block no more than timeoutMillis.
+            // If the timeout occurs, SocketTimeoutException is thrown.
+            sock.connect(address, timeoutMillis);
+            callback.connected(System.nanoTime() - started);
+        } catch (IOException e) {
+            callback.failed(e, System.nanoTime() - started);
+        } finally {
+            if(sock!=null) {
+                try {
+                    sock.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
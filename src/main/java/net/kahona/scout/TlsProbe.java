@@ -0,0 +1,98 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an endpoint completes a TLS handshake with a certificate that is trusted and matches the service's
+ * host name. Sessions are cached by the default {@link SSLSocketFactory}, so a probe resumes the previous session
+ * where the server allows it instead of making a full handshake. The connect, the handshake and the wait for a
+ * session ticket together must complete within the timeout.
+ *
+ * @author Dennis Reedy
+ */
+final class TlsProbe implements Probe {
+    static final String TYPE = "tls";
+    private static final int TICKET_WAIT_MILLIS = 20;
+
+    public String getType() {
+        return TYPE;
+    }
+
+    public void probe(ProbeSpec spec, InetSocketAddress address, int timeoutMillis, ConnectProber.Callback callback) {
+        long started = System.nanoTime();
+        DeadlineSocket raw = new DeadlineSocket(started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        Socket socket = raw;
+        try {
+            raw.connect(address);
+            SSLSocket tls = handshake(raw, spec);
+            socket = tls;
+            long elapsed = System.nanoTime() - started;
+            if("TLSv1.3".equals(tls.getSession().getProtocol()))
+                awaitSessionTicket(raw, tls);
+            callback.connected(elapsed);
+        } catch (IOException e) {
+            callback.failed(e, System.nanoTime() - started);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /* Closing after the probe completed, nothing to do */
+            }
+        }
+    }
+
+    /**
+     * Make a TLS handshake over a connected socket, checking the certificate against the spec's host. The handshake
+     * must complete by the socket's deadline.
+     *
+     * @param socket The connected socket
+     * @param spec The spec of the service
+     *
+     * @return The TLS socket
+     */
+    static SSLSocket handshake(DeadlineSocket socket, ProbeSpec spec) throws IOException {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        /* Layering over the connected socket with the host name sends SNI and keys the session cache */
+        SSLSocket tls = (SSLSocket) factory.createSocket(socket, spec.getHost(), spec.getPort(), true);
+        SSLParameters parameters = tls.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        tls.setSSLParameters(parameters);
+        tls.startHandshake();
+        return tls;
+    }
+
+    /**
+     * A TLS 1.3 server sends the ticket to resume the session with after the handshake, it is only processed by
+     * reading from the socket. Wait briefly for it, the server sends no application data.
+     */
+    private static void awaitSessionTicket(DeadlineSocket raw, SSLSocket tls) {
+        try {
+            raw.setDeadline(Math.min(raw.getDeadline(),
+                                     System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICKET_WAIT_MILLIS)));
+            tls.getInputStream().read();
+        } catch (IOException e) {
+            /* Timed out, or the server closed the connection, either way the ticket has been read if it was sent */
+        }
+    }
+}
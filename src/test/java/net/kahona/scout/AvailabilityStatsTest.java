@@ -0,0 +1,74 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link AvailabilityStats}.
+ *
+ * @author Dennis Reedy
+ */
+public class AvailabilityStatsTest {
+    private static final long MAX_GAP = 60000;
+
+    @Test
+    public void serviceDownWhenFirstProbedIsAnOutage() {
+        /* Reading a window slides it to the present, so record recent probes */
+        long start = System.currentTimeMillis() - 120000;
+        AvailabilityStats stats = new AvailabilityStats();
+        stats.record(start, false, MAX_GAP);
+        stats.record(start + 10000, false, MAX_GAP);
+        stats.record(start + 20000, true, MAX_GAP);
+        assertEquals(1, stats.getOutageCount(AvailabilityStats.Window.HOUR));
+        assertEquals(20000, stats.getMttrMillis(AvailabilityStats.Window.HOUR));
+    }
+
+    @Test
+    public void outagesAndRecoveries() {
+        long start = System.currentTimeMillis() - 120000;
+        AvailabilityStats stats = new AvailabilityStats();
+        stats.record(start, true, MAX_GAP);
+        stats.record(start + 10000, false, MAX_GAP);
+        stats.record(start + 40000, true, MAX_GAP);
+        stats.record(start + 50000, false, MAX_GAP);
+        stats.record(start + 60000, true, MAX_GAP);
+        assertEquals(2, stats.getOutageCount(AvailabilityStats.Window.HOUR));
+        assertEquals(20000, stats.getMttrMillis(AvailabilityStats.Window.HOUR));
+        /* The time before a probe counts towards the state it found */
+        assertEquals(40000.0 / 60000, stats.getAvailability(AvailabilityStats.Window.HOUR), 0.0001);
+    }
+
+    @Test
+    public void windowWithoutProbesIsEmpty() {
+        long start = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        AvailabilityStats stats = new AvailabilityStats();
+        stats.record(start, true, MAX_GAP);
+        stats.record(start + 10000, false, MAX_GAP);
+        stats.record(start + 40000, true, MAX_GAP);
+        assertTrue(Double.isNaN(stats.getAvailability(AvailabilityStats.Window.HOUR)));
+        assertEquals(0, stats.getOutageCount(AvailabilityStats.Window.HOUR));
+        assertEquals(0, stats.getMttrMillis(AvailabilityStats.Window.HOUR));
+        assertEquals(1, stats.getOutageCount(AvailabilityStats.Window.DAY));
+        assertEquals(30000, stats.getMttrMillis(AvailabilityStats.Window.DAY));
+        assertTrue(stats.isUp());
+    }
+}
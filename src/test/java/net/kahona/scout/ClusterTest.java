@@ -0,0 +1,222 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests cluster membership and rebalancing with nodes heartbeating over loopback. The nodes run in this JVM, so
+ * they share the process-wide scheduler, resolver cache and probe admission, and monitors of the same address
+ * share an endpoint.
+ *
+ * @author Dennis Reedy
+ */
+public class ClusterTest {
+    private static final int SERVICES = 20;
+    private final NotificationListener ignore = new NotificationListener() {
+        public void serviceIsNowAvailable(Service service) {
+        }
+
+        public void serviceNotAvailable(Service service) {
+        }
+    };
+    private final List<Service> services = new ArrayList<Service>();
+    private final List<Cluster> clusters = new ArrayList<Cluster>();
+    private final List<MonitorRegistry> registries = new ArrayList<MonitorRegistry>();
+    private InetSocketAddress first;
+    private InetSocketAddress second;
+
+    @Before
+    public void setUp() throws IOException {
+        first = freeAddress();
+        second = freeAddress();
+        for(int i=0; i<SERVICES; i++)
+            services.add(new Service("cluster-service-" + i, "127.0.0.1:9", "60", "SECONDS"));
+    }
+
+    @After
+    public void tearDown() {
+        for(Cluster cluster : clusters)
+            cluster.close();
+        for(MonitorRegistry registry : registries)
+            registry.terminate();
+    }
+
+    @Test
+    public void servicesAreSplitAndFailOver() throws Exception {
+        MonitorRegistry firstMonitors = registry();
+        MonitorRegistry secondMonitors = registry();
+        Cluster firstNode = node(first, firstMonitors);
+        Cluster secondNode = node(second, secondMonitors);
+        awaitSplit(firstNode, firstMonitors, secondMonitors);
+        assertEquals(new TreeSet<String>(Arrays.asList(id(first), id(second))), firstNode.getMembers());
+        Set<String> ownedByFirst = names(firstMonitors);
+
+        /* The second node stops, the first takes over its services once it has missed its heartbeats */
+        secondNode.close();
+        secondMonitors.terminate();
+        await(firstMonitors, SERVICES);
+        assertEquals(Collections.singleton(id(first)), firstNode.getMembers());
+
+        /* It comes back, and only its services move back to it */
+        MonitorRegistry restartedMonitors = registry();
+        node(second, restartedMonitors);
+        awaitSplit(firstNode, firstMonitors, restartedMonitors);
+        assertEquals(ownedByFirst, names(firstMonitors));
+    }
+
+    @Test
+    public void threeNodesShareStatesAcrossSeveralDatagrams() throws Exception {
+        /* Long names, so each node's heartbeat is split across several datagrams */
+        StringBuilder prefix = new StringBuilder();
+        while(prefix.length()<100)
+            prefix.append("a-service-with-a-long-name-");
+        List<Service> many = new ArrayList<Service>();
+        for(int i=0; i<450; i++)
+            many.add(new Service(prefix + "-" + i, "127.0.0.1:9", "1", "SECONDS"));
+        List<InetSocketAddress> addresses = Arrays.asList(freeAddress(), freeAddress(), freeAddress());
+        List<Cluster> nodes = new ArrayList<Cluster>();
+        List<MonitorRegistry> monitors = new ArrayList<MonitorRegistry>();
+        for(InetSocketAddress address : addresses) {
+            MonitorRegistry registry = registry();
+            Cluster cluster = new Cluster(address, addresses, 50, TimeUnit.MILLISECONDS, registry);
+            clusters.add(cluster);
+            cluster.setServices(many);
+            nodes.add(cluster);
+            monitors.add(registry);
+        }
+        awaitOwned(nodes, monitors, many.size());
+
+        /* Nothing listens on the discard port, every service is down. Each node learns the state of the services
+           the others probe from their heartbeats */
+        for(Cluster node : nodes)
+            awaitAllDown(node, many.size());
+
+        /* A node stops, the other two split its services */
+        nodes.remove(2).close();
+        monitors.remove(2).terminate();
+        awaitOwned(nodes, monitors, many.size());
+        assertEquals(2, nodes.get(0).getMembers().size());
+        for(Cluster node : nodes)
+            awaitAllDown(node, many.size());
+    }
+
+    /* Each service is probed by exactly one of the nodes, the one that owns it */
+    private static void awaitOwned(List<Cluster> nodes, List<MonitorRegistry> monitors, int count)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int total;
+        boolean split;
+        do {
+            Thread.sleep(20);
+            total = 0;
+            split = true;
+            for(MonitorRegistry registry : monitors) {
+                total += registry.size();
+                split &= registry.size()>0;
+            }
+        } while((total!=count || !split) && System.nanoTime()<deadline);
+        assertEquals("Each service is probed by one node", count, total);
+        for(int i=0; i<nodes.size(); i++) {
+            for(ServiceMonitor monitor : monitors.get(i).getMonitors())
+                assertEquals(nodes.get(i).getId(), nodes.get(0).getOwner(monitor.getService().getName()));
+        }
+    }
+
+    private static void awaitAllDown(Cluster node, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int down;
+        do {
+            Thread.sleep(50);
+            down = 0;
+            for(int state : node.getView().values()) {
+                if(state==ServiceMetrics.DOWN)
+                    down++;
+            }
+        } while(down!=count && System.nanoTime()<deadline);
+        assertEquals("Services " + node.getId() + " knows to be down", count, down);
+    }
+
+    private void awaitSplit(Cluster node, MonitorRegistry firstMonitors, MonitorRegistry secondMonitors)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(System.nanoTime()<deadline) {
+            if(firstMonitors.size() + secondMonitors.size()==SERVICES && firstMonitors.size()>0 &&
+               secondMonitors.size()>0)
+                break;
+            Thread.sleep(20);
+        }
+        assertEquals("Each service is probed by one node", SERVICES, firstMonitors.size() + secondMonitors.size());
+        for(Service service : services) {
+            String owner = node.getOwner(service.getName());
+            MonitorRegistry expected = owner.equals(id(first))?firstMonitors:secondMonitors;
+            assertTrue(service.getName() + " is probed by its owner " + owner,
+                       expected.get(service.getName())!=null);
+        }
+    }
+
+    private void await(MonitorRegistry monitors, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(monitors.size()!=size && System.nanoTime()<deadline)
+            Thread.sleep(20);
+        assertEquals(size, monitors.size());
+    }
+
+    private MonitorRegistry registry() {
+        MonitorRegistry registry = new MonitorRegistry(ignore);
+        registries.add(registry);
+        return registry;
+    }
+
+    private Cluster node(InetSocketAddress address, MonitorRegistry monitors) throws IOException {
+        Cluster cluster = new Cluster(address, Arrays.asList(first, second), 50, TimeUnit.MILLISECONDS, monitors);
+        clusters.add(cluster);
+        cluster.setServices(services);
+        return cluster;
+    }
+
+    private static Set<String> names(MonitorRegistry monitors) {
+        Set<String> names = new TreeSet<String>();
+        for(ServiceMonitor monitor : monitors.getMonitors())
+            names.add(monitor.getService().getName());
+        return names;
+    }
+
+    private static String id(InetSocketAddress address) {
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    private static InetSocketAddress freeAddress() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        try {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests for the {@link ConnectProber}.
+ *
+ * @author Dennis Reedy
+ */
+public class ConnectProberTest {
+    private final Executor direct = new Executor() {
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+    private ConnectProber prober;
+    private ServerSocket server;
+
+    @Before
+    public void start() throws IOException {
+        prober = new ConnectProber(direct);
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void stop() throws IOException {
+        prober.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void failingCallbackDoesNotStopProbing() throws InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        prober.connect(address, 1000, new ConnectProber.Callback() {
+            public void connected(long connectNanos) {
+                throw new IllegalStateException("callback failed");
+            }
+
+            public void failed(IOException cause, long elapsedNanos) {
+                throw new IllegalStateException("callback failed");
+            }
+        });
+        assertEquals("connected", connect(address));
+        assertEquals("connected", connect(address));
+    }
+
+    @Test
+    public void refusedConnectFails() throws InterruptedException, IOException {
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), closed.getLocalPort());
+        closed.close();
+        assertEquals("failed", connect(address));
+    }
+
+    private String connect(InetSocketAddress address) throws InterruptedException {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<String>();
+        prober.connect(address, 1000, new ConnectProber.Callback() {
+            public void connected(long connectNanos) {
+                results.add("connected");
+            }
+
+            public void failed(IOException cause, long elapsedNanos) {
+                results.add("failed");
+            }
+        });
+        String result = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No result within 5 seconds", result);
+        return result;
+    }
+}
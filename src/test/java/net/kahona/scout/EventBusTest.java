@@ -0,0 +1,68 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link EventBus}.
+ *
+ * @author Dennis Reedy
+ */
+public class EventBusTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void journalKeepsEveryEventWhileSubscriberFallsBehind() throws IOException, InterruptedException {
+        EventJournal journal = new EventJournal(folder.newFolder("journal"), 1024 * 1024, 2);
+        EventBus events = new EventBus();
+        events.setJournal(journal);
+        final CountDownLatch release = new CountDownLatch(1);
+        EventBus.Subscription slow = events.subscribe("slow", new EventBus.Subscriber() {
+            public void serviceEvents(List<ServiceEvent> batch) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 10, EventBus.Overflow.DROP_OLDEST, 1);
+        Service service = new Service("db", "db:5432", "10", "SECONDS");
+        for(int i=0; i<1000; i++)
+            events.publish(new ServiceEvent(service, ServiceEvent.Type.NOT_AVAILABLE, i));
+        release.countDown();
+        events.close();
+        journal.close();
+        assertTrue("The slow subscriber dropped " + slow.getDroppedCount() + " events",
+                   slow.getDroppedCount()>=1000 - 10 - 1);
+        assertEquals(1000, slow.getDroppedCount() + slow.getDeliveredCount());
+        assertEquals(0, journal.getDroppedCount());
+        List<ServiceEvent> journaled = journal.readLast(2000);
+        assertEquals(1000, journaled.size());
+        assertEquals(999, journaled.get(999).getTime());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link EventJournal}, opening segments left behind by a crash or another configuration.
+ *
+ * @author Dennis Reedy
+ */
+public class EventJournalTest {
+    private static final long START = 1500000000000L;
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptySegmentIsReplaced() throws IOException {
+        File directory = folder.newFolder("journal");
+        new RandomAccessFile(new File(directory, "events-0000000000000001.journal"), "rw").close();
+        assertAppendsAfter(directory, 4096, 0);
+    }
+
+    @Test
+    public void truncatedSegmentIsReplaced() throws IOException {
+        File directory = folder.newFolder("journal");
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "events-0000000000000001.journal"), "rw");
+        file.writeInt(0x53434a31);
+        file.close();
+        assertAppendsAfter(directory, 4096, 0);
+    }
+
+    @Test
+    public void segmentOfAnotherSizeIsKeptForReading() throws IOException {
+        File directory = folder.newFolder("journal");
+        EventJournal journal = new EventJournal(directory, 4096, 8);
+        journal.append(event(0));
+        journal.close();
+        assertAppendsAfter(directory, 8192, 1);
+        File[] segments = directory.listFiles();
+        assertEquals(2, segments.length);
+    }
+
+    private static void assertAppendsAfter(File directory, int segmentSize, int existing) throws IOException {
+        EventJournal journal = new EventJournal(directory, segmentSize, 8);
+        journal.append(event(1));
+        journal.close();
+        List<ServiceEvent> events = journal.readLast(10);
+        assertEquals(existing + 1, events.size());
+        assertEquals(START + 1, events.get(events.size() - 1).getTime());
+        boolean started = false;
+        for(File segment : directory.listFiles())
+            started |= segment.length()==segmentSize;
+        assertTrue("No segment of " + segmentSize + " bytes was started", started);
+    }
+
+    private static ServiceEvent event(int i) {
+        return new ServiceEvent(new Service("db", "db:5432", null, null), ServiceEvent.Type.NOT_AVAILABLE, START + i);
+    }
+}
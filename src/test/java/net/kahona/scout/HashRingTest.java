@@ -0,0 +1,88 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link HashRing}.
+ *
+ * @author Dennis Reedy
+ */
+public class HashRingTest {
+    private static final int SERVICES = 10000;
+
+    @Test
+    public void servicesAreSpreadEvenly() {
+        HashRing ring = new HashRing(Arrays.asList("10.0.0.1:7700", "10.0.0.2:7700", "10.0.0.3:7700"));
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for(int i=0; i<SERVICES; i++) {
+            String owner = ring.owner("service-" + i);
+            Integer count = counts.get(owner);
+            counts.put(owner, count==null?1:count + 1);
+        }
+        assertEquals(3, counts.size());
+        for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+            double share = entry.getValue() / (double) SERVICES;
+            assertTrue(entry.getKey() + " owns " + share + " of the services", share>0.25 && share<0.42);
+        }
+    }
+
+    @Test
+    public void joiningNodeTakesAboutOneNthFromTheOthers() {
+        HashRing before = new HashRing(Arrays.asList("10.0.0.1:7700", "10.0.0.2:7700", "10.0.0.3:7700"));
+        HashRing after = new HashRing(Arrays.asList("10.0.0.1:7700", "10.0.0.2:7700", "10.0.0.3:7700",
+                                                    "10.0.0.4:7700"));
+        int moved = 0;
+        for(int i=0; i<SERVICES; i++) {
+            String name = "service-" + i;
+            String owner = after.owner(name);
+            if(!owner.equals(before.owner(name))) {
+                assertEquals("A service may only move to the node that joined", "10.0.0.4:7700", owner);
+                moved++;
+            }
+        }
+        double share = moved / (double) SERVICES;
+        assertTrue(share + " of the services moved", share>0.17 && share<0.33);
+    }
+
+    @Test
+    public void leavingNodeOnlyMovesItsOwnServices() {
+        HashRing before = new HashRing(Arrays.asList("10.0.0.1:7700", "10.0.0.2:7700", "10.0.0.3:7700"));
+        HashRing after = new HashRing(Arrays.asList("10.0.0.1:7700", "10.0.0.3:7700"));
+        for(int i=0; i<SERVICES; i++) {
+            String name = "service-" + i;
+            String owner = before.owner(name);
+            if(!owner.equals("10.0.0.2:7700"))
+                assertEquals(owner, after.owner(name));
+        }
+    }
+
+    @Test
+    public void everyNodeBuildsTheSameRing() {
+        HashRing ring = new HashRing(Arrays.asList("b:1", "a:1", "c:1"));
+        HashRing reordered = new HashRing(Arrays.asList("c:1", "b:1", "a:1"));
+        for(int i=0; i<1000; i++)
+            assertEquals(ring.owner("service-" + i), reordered.owner("service-" + i));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link HttpProbe}, against a local HTTP server.
+ *
+ * @author Dennis Reedy
+ */
+public class HttpProbeTest {
+    private final List<String> hosts = new CopyOnWriteArrayList<String>();
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<Integer>();
+    private final HttpProbe probe = new HttpProbe("http");
+    private HttpServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/health", new Responder(200, "ok"));
+        server.createContext("/down", new Responder(503, "down"));
+        server.createContext("/moved", new Responder(302, ""));
+        server.createContext("/chunked", new Responder(200, null));
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                new Responder(200, "late").handle(exchange);
+            }
+        });
+        server.start();
+        address = server.getAddress();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void healthyResponseIsConnected() {
+        Result result = probe("/health", 1000);
+        assertTrue(String.valueOf(result.cause), result.connected);
+    }
+
+    @Test
+    public void connectsToGivenAddressAndSendsHostHeader() {
+        /* The host does not resolve, the probe must use the address it was given */
+        Result result = probe("/health", 1000);
+        assertTrue(String.valueOf(result.cause), result.connected);
+        assertEquals("scout-probe.invalid:" + address.getPort(), hosts.get(0));
+    }
+
+    @Test
+    public void errorStatusFails() {
+        Result result = probe("/down", 1000);
+        assertFalse(result.connected);
+        assertTrue(result.cause.getMessage(), result.cause.getMessage().contains("503"));
+    }
+
+    @Test
+    public void redirectIsNotFollowedAndIsHealthy() {
+        assertTrue(probe("/moved", 1000).connected);
+    }
+
+    @Test
+    public void connectionIsKeptAlive() {
+        assertTrue(probe("/health", 1000).connected);
+        assertTrue(probe("/chunked", 1000).connected);
+        assertTrue(probe("/chunked", 1000).connected);
+        assertTrue(probe("/health", 1000).connected);
+        assertEquals(4, clientPorts.size());
+        assertEquals("A fixed length body reuses the connection", clientPorts.get(0), clientPorts.get(3));
+        assertEquals("A chunked body reuses the connection", clientPorts.get(1), clientPorts.get(2));
+    }
+
+    @Test
+    public void slowResponseTimesOutWithinTimeout() {
+        long started = System.nanoTime();
+        Result result = probe("/slow", 300);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertFalse(result.connected);
+        assertTrue("Probe took " + elapsedMillis + " ms", elapsedMillis<600);
+    }
+
+    private Result probe(String path, int timeoutMillis) {
+        Service service = new Service("web", "scout-probe.invalid:" + address.getPort(), "10", "SECONDS");
+        service.setProbe("http");
+        service.setPath(path);
+        Result result = new Result();
+        probe.probe(ProbeSpec.compile(service), address, timeoutMillis, result);
+        assertEquals("The callback must be notified exactly once", 1, result.count);
+        return result;
+    }
+
+    private static class Result implements ConnectProber.Callback {
+        boolean connected;
+        IOException cause;
+        int count;
+
+        public void connected(long connectNanos) {
+            connected = true;
+            count++;
+        }
+
+        public void failed(IOException cause, long elapsedNanos) {
+            this.cause = cause;
+            count++;
+        }
+    }
+
+    private class Responder implements HttpHandler {
+        private final int status;
+        private final String body;
+
+        /* A null body is sent chunked */
+        Responder(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            hosts.add(exchange.getRequestHeaders().getFirst("Host"));
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] bytes = (body==null?"chunked body":body).getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, body==null?0:(bytes.length==0?-1:bytes.length));
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes.length==0 || body!=null && body.length()==0?new byte[0]:bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the filtered and sorted rows of the {@link NotificationTableModel} are the events a linear scan of
+ * the held events selects, in the same order.
+ *
+ * @author Dennis Reedy
+ */
+public class NotificationTableModelTest {
+    private static final long START = 1500000000000L;
+    private static final String[] NAMES = {"web", "db", "cache", "webhook", "queue"};
+
+    @Test
+    public void everyFilterAndSort() throws Exception {
+        final int capacity = 500;
+        final NotificationTableModel model = new NotificationTableModel(capacity);
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+        Random random = new Random(7);
+        /* Each event has its own address, to tell the rows apart */
+        for(int i=0; i<800; i++) {
+            String name = NAMES[random.nextInt(NAMES.length)];
+            ServiceEvent.Type type = random.nextInt(3)==0?ServiceEvent.Type.NOT_AVAILABLE:ServiceEvent.Type.AVAILABLE;
+            ServiceEvent event = new ServiceEvent(new Service(name, name + ":" + i, "10", "SECONDS"), type, START + i);
+            events.add(event);
+            model.add(event);
+        }
+        /* Only the most recent events are held */
+        final List<ServiceEvent> held = events.subList(events.size() - capacity, events.size());
+        onEventThread(new Runnable() {
+            public void run() {
+                assertEquals(capacity, model.getEventCount());
+                for(NotificationTableModel.Sort sort : NotificationTableModel.Sort.values()) {
+                    for(String service : new String[]{"", "web", "DB", "nothing"}) {
+                        for(boolean failuresOnly : new boolean[]{false, true}) {
+                            for(long[] range : new long[][]{{Long.MIN_VALUE, Long.MAX_VALUE},
+                                                            {START + 400, START + 600},
+                                                            {START, START + 100}}) {
+                                model.setSort(sort);
+                                model.setFilter(service, failuresOnly, range[0], range[1]);
+                                String times = range[0]==Long.MIN_VALUE?"any time":
+                                               "from " + (range[0] - START) + " to " + (range[1] - START);
+                                assertRows(sort + ", service '" + service + "', failures only " + failuresOnly +
+                                           ", " + times,
+                                           expected(held, sort, service, failuresOnly, range[0], range[1]),
+                                           model);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void filteredViewFollowsAddedEvents() throws Exception {
+        final NotificationTableModel model = new NotificationTableModel(100);
+        onEventThread(new Runnable() {
+            public void run() {
+                model.setSort(NotificationTableModel.Sort.SERVICE);
+                model.setFilter("", true, Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+        });
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+        for(int i=0; i<10; i++) {
+            String name = NAMES[i % NAMES.length];
+            ServiceEvent event = new ServiceEvent(new Service(name, name + ":" + i, "10", "SECONDS"),
+                                                  i%2==0?ServiceEvent.Type.NOT_AVAILABLE:ServiceEvent.Type.AVAILABLE,
+                                                  START + i);
+            events.add(event);
+            model.add(event);
+        }
+        onEventThread(new Runnable() {
+            public void run() {
+                assertRows("failures by service",
+                           expected(events, NotificationTableModel.Sort.SERVICE, "", true, Long.MIN_VALUE,
+                                    Long.MAX_VALUE),
+                           model);
+            }
+        });
+    }
+
+    private static List<ServiceEvent> expected(List<ServiceEvent> held, NotificationTableModel.Sort sort,
+                                               String service, boolean failuresOnly, long from, long to) {
+        List<ServiceEvent> rows = new ArrayList<ServiceEvent>();
+        for(ServiceEvent event : held) {
+            if(failuresOnly && event.getType()!=ServiceEvent.Type.NOT_AVAILABLE)
+                continue;
+            if(event.getTime()<from || event.getTime()>=to)
+                continue;
+            if(!event.getService().getName().contains(service.toLowerCase(Locale.ROOT)))
+                continue;
+            rows.add(event);
+        }
+        if(sort==NotificationTableModel.Sort.TIME_DESCENDING) {
+            Collections.reverse(rows);
+        } else if(sort==NotificationTableModel.Sort.SERVICE) {
+            /* A stable sort, so the events of a service stay in time order */
+            Collections.sort(rows, new Comparator<ServiceEvent>() {
+                public int compare(ServiceEvent e1, ServiceEvent e2) {
+                    return e1.getService().getName().compareTo(e2.getService().getName());
+                }
+            });
+        }
+        return rows;
+    }
+
+    private static void assertRows(String message, List<ServiceEvent> expected, NotificationTableModel model) {
+        assertEquals(message + ": rows", expected.size(), model.getRowCount());
+        for(int row=0; row<expected.size(); row++) {
+            ServiceEvent event = expected.get(row);
+            assertEquals(message + ": address of row " + row,
+                         event.getService().getAddress(), model.getValueAt(row, 1));
+            assertEquals(message + ": event of row " + row,
+                         event.getType()==ServiceEvent.Type.NOT_AVAILABLE?
+                         NotificationTableModel.NOT_AVAILABLE:NotificationTableModel.AVAILABLE,
+                         model.getValueAt(row, 2));
+        }
+    }
+
+    /* Events are applied on the event dispatch thread, so checking there also waits for them */
+    private static void onEventThread(Runnable check) throws InterruptedException {
+        try {
+            SwingUtilities.invokeAndWait(check);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the {@link ProbeHistory} rollups.
+ *
+ * @author Dennis Reedy
+ */
+public class ProbeHistoryTest {
+
+    @Test
+    public void failedRollupsHaveNoMinimumLatency() {
+        /* As read from a file, a rollup where every probe failed is stored with a minimum of 0 */
+        ProbeHistory.Rollup failed = new ProbeHistory.Rollup(0, 5, 5, 0, 0, 0);
+        ProbeHistory.Rollup succeeded = new ProbeHistory.Rollup(0, 2, 0, 300, 100, 200);
+
+        ProbeHistory.Rollup merged = failed.copy();
+        merged.merge(succeeded);
+        assertEquals(100, merged.getMinLatencyMicros());
+        assertEquals(200, merged.getMaxLatencyMicros());
+        assertEquals(7, merged.getCount());
+
+        merged = succeeded.copy();
+        merged.merge(failed);
+        assertEquals(100, merged.getMinLatencyMicros());
+
+        merged = failed.copy();
+        merged.merge(new ProbeHistory.Rollup(0, 1, 1, 0, 0, 0));
+        assertEquals(0, merged.getMinLatencyMicros());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link ProbeScheduler}.
+ *
+ * @author Dennis Reedy
+ */
+public class ProbeSchedulerTest {
+    private final ProbeScheduler scheduler = new ProbeScheduler(10, TimeUnit.MILLISECONDS, 8, 1);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void periodOfOneRotationFiresEveryRotation() throws InterruptedException {
+        assertPeriodHonored(80);
+    }
+
+    @Test
+    public void periodOfSeveralRotationsFiresOnTime() throws InterruptedException {
+        assertPeriodHonored(160);
+    }
+
+    @Test
+    public void periodShorterThanRotationFiresOnTime() throws InterruptedException {
+        assertPeriodHonored(30);
+    }
+
+    @Test
+    public void dueTimeOfRunInProgressIsKnown() throws InterruptedException {
+        final ProbeScheduler.ScheduledProbe[] probe = new ProbeScheduler.ScheduledProbe[1];
+        final long[] lateness = new long[]{-1};
+        final CountDownLatch done = new CountDownLatch(1);
+        synchronized(probe) {
+            probe[0] = scheduler.schedule(new Runnable() {
+                public void run() {
+                    synchronized(probe) {
+                        lateness[0] = System.nanoTime() - probe[0].getDueNanos();
+                        probe[0].cancel();
+                    }
+                    done.countDown();
+                }
+            }, 20, 1000, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue("The run started " + lateness[0] + " ns after it was due",
+                   lateness[0]>=0 && lateness[0]<TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void runsMissedWhileTheTimerStalledAreSkipped() throws InterruptedException {
+        /* A clock that can jump ahead, as if the timer thread had stalled */
+        final AtomicLong offset = new AtomicLong();
+        ProbeScheduler stalling = new ProbeScheduler(10, TimeUnit.MILLISECONDS, 8, 1, new ProbeScheduler.Clock() {
+            public long nanoTime() {
+                return System.nanoTime() + offset.get();
+            }
+        });
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            final CountDownLatch first = new CountDownLatch(1);
+            stalling.schedule(new Runnable() {
+                public void run() {
+                    runs.incrementAndGet();
+                    first.countDown();
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            int before = runs.get();
+            offset.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+            Thread.sleep(50);
+            assertEquals("The missed runs were run back-to-back", before + 1, runs.get());
+            assertTrue("Skipped " + stalling.getSkippedCount() + " runs", stalling.getSkippedCount()>=9);
+        } finally {
+            stalling.shutdown();
+        }
+    }
+
+    private void assertPeriodHonored(long periodMillis) throws InterruptedException {
+        final int runs = 4;
+        final AtomicLongArray started = new AtomicLongArray(runs);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(runs);
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                int run = count.getAndIncrement();
+                if(run<runs) {
+                    started.set(run, System.nanoTime());
+                    done.countDown();
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+        assertTrue("Scheduled task did not run " + runs + " times",
+                   done.await(periodMillis * runs * 3, TimeUnit.MILLISECONDS));
+        for(int i=1; i<runs; i++) {
+            long interval = TimeUnit.NANOSECONDS.toMillis(started.get(i) - started.get(i - 1));
+            assertTrue("Run " + i + " started " + interval + " ms after the previous run, the period is " +
+                       periodMillis + " ms", interval<periodMillis * 3 / 2);
+        }
+    }
+}
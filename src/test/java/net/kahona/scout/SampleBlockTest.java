@@ -0,0 +1,143 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trip tests for the {@link SampleBlock} encoding.
+ *
+ * @author Dennis Reedy
+ */
+public class SampleBlockTest {
+    private static final long START = 1500000000000L;
+
+    @Test
+    public void deltaOfDeltaBoundaries() {
+        /* Either side of the limit of each range, the first is a large delta of delta */
+        long[] dods = {200000, 0, 1, -1, 64, -63, 65, -64, 256, -255, 257, -256, 2048, -2047, 2049, -2048,
+                       100000, -100000, 0, 0};
+        long[] times = new long[dods.length + 1];
+        long[] latencies = new long[times.length];
+        boolean[] available = new boolean[times.length];
+        times[0] = START;
+        long delta = 0;
+        for(int i=0; i<dods.length; i++) {
+            delta += dods[i];
+            times[i + 1] = times[i] + delta;
+        }
+        for(int i=0; i<times.length; i++) {
+            latencies[i] = 1000;
+            available[i] = i%3!=0;
+        }
+        assertRoundTrip(times, available, latencies);
+    }
+
+    @Test
+    public void xorWindows() {
+        long[] latencies = {1000,
+                            1000,                      /* unchanged */
+                            1001,                      /* a new window of one bit */
+                            1000,                      /* the same window */
+                            1003,                      /* a wider window */
+                            1001,                      /* within the wider window */
+                            1001 ^ Long.MIN_VALUE,     /* the full 64 bits */
+                            1001,                      /* within the full window */
+                            0,
+                            Long.MAX_VALUE,
+                            -1,
+                            1L << 40,                  /* trailing zeros */
+                            3L << 40,
+                            1L << 41,
+                            250};
+        long[] times = new long[latencies.length];
+        boolean[] available = new boolean[latencies.length];
+        for(int i=0; i<times.length; i++) {
+            times[i] = START + i * 1000;
+            available[i] = i%2==0;
+        }
+        assertRoundTrip(times, available, latencies);
+    }
+
+    @Test
+    public void randomSamples() {
+        Random random = new Random(42);
+        long[] times = new long[5000];
+        long[] latencies = new long[times.length];
+        boolean[] available = new boolean[times.length];
+        long time = START;
+        for(int i=0; i<times.length; i++) {
+            time += random.nextInt(5)==0?random.nextInt(100000):1000 + random.nextInt(3) - 1;
+            times[i] = time;
+            latencies[i] = random.nextInt(4)==0?random.nextLong():500 + random.nextInt(100);
+            available[i] = random.nextInt(10)!=0;
+        }
+        assertRoundTrip(times, available, latencies);
+    }
+
+    @Test
+    public void timeGoingBackwardsIsStoredAsTheLastTime() {
+        SampleBlock block = new SampleBlock();
+        block.append(START, true, 10);
+        block.append(START + 1000, true, 10);
+        block.append(START + 500, false, 20);
+        List<ProbeHistory.Sample> samples = decode(block, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, samples.size());
+        assertEquals(START + 1000, samples.get(2).getTime());
+        assertEquals(20, samples.get(2).getLatencyMicros());
+    }
+
+    @Test
+    public void decodeSelectsTheRange() {
+        SampleBlock block = new SampleBlock();
+        for(int i=0; i<10; i++)
+            block.append(START + i * 1000, true, i);
+        List<ProbeHistory.Sample> samples = decode(block, START + 2000, START + 5000);
+        assertEquals(3, samples.size());
+        assertEquals(START + 2000, samples.get(0).getTime());
+        assertEquals(4, samples.get(2).getLatencyMicros());
+    }
+
+    private static void assertRoundTrip(long[] times, boolean[] available, long[] latencies) {
+        SampleBlock block = new SampleBlock();
+        for(int i=0; i<times.length; i++)
+            block.append(times[i], available[i], latencies[i]);
+        assertEquals(times.length, block.getCount());
+        assertEquals(times[0], block.getFirstTime());
+        assertEquals(times[times.length - 1], block.getLastTime());
+        List<ProbeHistory.Sample> samples = decode(block, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(times.length, samples.size());
+        for(int i=0; i<times.length; i++) {
+            ProbeHistory.Sample sample = samples.get(i);
+            assertEquals("time of sample " + i, times[i], sample.getTime());
+            assertEquals("availability of sample " + i, available[i], sample.isAvailable());
+            assertEquals("latency of sample " + i, latencies[i], sample.getLatencyMicros());
+            assertEquals("service", sample.getService());
+        }
+    }
+
+    private static List<ProbeHistory.Sample> decode(SampleBlock block, long from, long to) {
+        List<ProbeHistory.Sample> samples = new ArrayList<ProbeHistory.Sample>();
+        SampleBlock.decode("service", block.toByteArray(), block.getCount(), from, to, samples);
+        return samples;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright to the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kahona.scout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link TlsProbe} and HTTPS probes give up on a slow peer within the timeout.
+ *
+ * @author Dennis Reedy
+ */
+public class TlsProbeTest {
+    private ServerSocket server;
+    private Thread trickler;
+
+    /* Accept connections and send the start of a TLS handshake record a byte at a time, each within the timeout a
+       read would get on its own */
+    @Before
+    public void start() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        trickler = new Thread(new Runnable() {
+            public void run() {
+                byte[] record = {0x16, 0x03, 0x03, 0x40, 0x00};
+                while(!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        try {
+                            OutputStream out = socket.getOutputStream();
+                            for(int i=0; i<40 && !server.isClosed(); i++) {
+                                out.write(i<record.length?record[i]:0);
+                                out.flush();
+                                Thread.sleep(100);
+                            }
+                        } catch (IOException e) {
+                            /* The probe gave up */
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        /* Closed */
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "tls-trickler");
+        trickler.setDaemon(true);
+        trickler.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        server.close();
+        trickler.interrupt();
+    }
+
+    @Test
+    public void slowHandshakeTimesOutWithinTimeout() {
+        assertTimesOut(new TlsProbe(), "tls");
+    }
+
+    @Test
+    public void slowHttpsHandshakeTimesOutWithinTimeout() {
+        assertTimesOut(new HttpProbe("https"), "https");
+    }
+
+    private void assertTimesOut(Probe probe, String type) {
+        Service service = new Service("secure", "scout-probe.invalid:" + server.getLocalPort(), "10", "SECONDS");
+        service.setProbe(type);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        final int[] results = new int[2];
+        long started = System.nanoTime();
+        probe.probe(ProbeSpec.compile(service), address, 300, new ConnectProber.Callback() {
+            public void connected(long connectNanos) {
+                results[0]++;
+            }
+
+            public void failed(IOException cause, long elapsedNanos) {
+                results[1]++;
+            }
+        });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertEquals("The callback must be notified exactly once", 1, results[0] + results[1]);
+        assertFalse(results[0]==1);
+        assertTrue("Probe took " + elapsedMillis + " ms", elapsedMillis<700);
+    }
+}